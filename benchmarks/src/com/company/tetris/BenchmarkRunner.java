@@ -0,0 +1,24 @@
+/*
+        Project title: Tetris
+        Author: Jakub Sobczyński
+        GitHub: https://github.com/J-Sob
+ */
+
+package com.company.tetris;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+public class BenchmarkRunner {      // runs all benchmarks with the GC profiler so allocation rate is reported next to ops/s
+
+    public static void main(String[] args) throws RunnerException {        // optional argument is a regex of benchmarks to run
+        Options options = new OptionsBuilder()
+                .include(args.length > 0 ? args[0] : EngineBenchmark.class.getSimpleName() + "|" + GameBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
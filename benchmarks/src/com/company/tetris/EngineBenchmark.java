@@ -0,0 +1,137 @@
+/*
+        Project title: Tetris
+        Author: Jakub Sobczyński
+        GitHub: https://github.com/J-Sob
+ */
+
+package com.company.tetris;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EngineBenchmark {      // hot paths of Engine measured on boards filled to different heights
+
+    public enum Fill {
+        EMPTY(0),
+        HALF(0.5),
+        NEAR_TOP(0.8);
+
+        final double part;      // part of the board height filled
+
+        Fill(double part){
+            this.part = part;
+        }
+    }
+
+    @Param
+    Fill fill;
+
+    @Param({"20x10", "2000x300"})         // rows x columns, the large board uses several words per row
+    String size;
+
+    Engine engine;
+    long[] filledBoard;      // board to restore before mutating benchmarks so every invocation sees the same state
+    int[] filledTops;
+    int pieceRow;       // row just above the stack, where the piece touches it
+
+    @Setup(Level.Trial)
+    public void setUp(){
+        String[] dimensions = size.split("x");
+        engine = new Engine(Integer.parseInt(dimensions[0]), Integer.parseInt(dimensions[1]), 42, false, 1);
+        Random random = new Random(42);
+        int rows = (int) (engine.getBoardRows() * fill.part);
+        for(int i = engine.getBoardRows() - rows; i < engine.getBoardRows(); i++){
+            int hole = random.nextInt(engine.getBoardColumns());        // one hole per row so nothing gets cleared
+            for(int j = 0; j < engine.getBoardColumns(); j++){
+                if(j != hole && (j == hole + 1 || random.nextInt(4) != 0)){
+                    engine.gameBoard[i * engine.words + (j >>> 6)] |= 1L << j;
+                }
+            }
+        }
+        engine.stackTop = engine.getBoardRows() - rows;
+        Bitboard.columnTops(engine.gameBoard, engine.getBoardColumns(), engine.columnTop);
+        filledBoard = engine.gameBoard.clone();
+        filledTops = engine.columnTop.clone();
+        pieceRow = Math.max(0, engine.getBoardRows() - rows - 2);
+        resetPiece();
+    }
+
+    void resetPiece(){
+        engine.tetro.setShape(Engine.Shape.TSHAPE);
+        engine.tetro.setRotation(0);
+        engine.tetro.setRowPos(pieceRow);
+        engine.tetro.setColumnPos(engine.getBoardColumns() / 2 - 2);
+    }
+
+    void resetBoard(){
+        System.arraycopy(filledBoard, 0, engine.gameBoard, 0, filledBoard.length);
+        System.arraycopy(filledTops, 0, engine.columnTop, 0, filledTops.length);
+        engine.stackTop = engine.getBoardRows() - (int) (engine.getBoardRows() * fill.part);
+        engine.gameOver = false;
+        resetPiece();
+    }
+
+    @Benchmark
+    public Engine.ClearResult checkBoard(){     // rows under the resting piece are never full, so this measures detection only
+        return engine.checkBoard();
+    }
+
+    @Benchmark
+    public void lowerTetromino(){       // includes locking the piece when it lands on the stack
+        resetBoard();
+        engine.lowerTetromino();
+    }
+
+    @Benchmark
+    public void hardDrop(){         // piece starts at the top of the board, so this falls the full height of the empty part
+        resetBoard();
+        engine.tetro.setRowPos(0);
+        engine.hardDrop();
+    }
+
+    @Benchmark
+    public int landingRow(){
+        return engine.landingRow();
+    }
+
+    @Benchmark
+    public void rotateTetromino(){
+        resetPiece();
+        engine.rotateTetromino();
+    }
+
+    @Benchmark
+    public void moveTetromino(){
+        resetPiece();
+        engine.moveTetromino(Engine.Direction.LEFT);
+        engine.moveTetromino(Engine.Direction.RIGHT);
+    }
+
+    @Benchmark
+    public boolean stackCollision(){
+        return engine.stackCollision();
+    }
+
+    @Benchmark
+    public boolean bottomCollision(){
+        return engine.bottomCollision();
+    }
+
+    @Benchmark
+    public boolean leftCollision(){
+        return engine.leftCollision();
+    }
+
+    @Benchmark
+    public boolean rightCollision(){
+        return engine.rightCollision();
+    }
+}
@@ -0,0 +1,42 @@
+/*
+        Project title: Tetris
+        Author: Jakub Sobczyński
+        GitHub: https://github.com/J-Sob
+ */
+
+package com.company.tetris;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GameBenchmark {        // whole games, kept apart from EngineBenchmark because the fill of a prepared board does not apply to them
+
+    @Param({"20x10", "2000x300"})         // rows x columns
+    String size;
+
+    int rows;
+    int columns;
+
+    @Setup(Level.Trial)
+    public void setUp(){
+        String[] dimensions = size.split("x");
+        rows = Integer.parseInt(dimensions[0]);
+        columns = Integer.parseInt(dimensions[1]);
+    }
+
+    @Benchmark
+    public void fullGame(Blackhole blackhole){      // game played by the random policy up to 1000 pieces, pieces and moves come from fixed seeds
+        Engine game = new Engine(rows, columns, 42, false, 1);
+        Simulation.playGame(game, MovePolicy.create("random", 42), 1000);
+        blackhole.consume(game.getScore());
+        blackhole.consume(game.getPiecesPlaced());
+    }
+}
@@ -0,0 +1,57 @@
+/*
+        Project title: Tetris
+        Author: Jakub Sobczyński
+        GitHub: https://github.com/J-Sob
+ */
+
+package com.company.tetris;
+
+public interface Agent extends MovePolicy {         // player that picks the final placement of each piece
+
+    class Placement {
+        final int rotation;
+        final int column;
+        final double score;         // heuristic value of the board after the placement
+
+        Placement(int rotation, int column, double score){
+            this.rotation = rotation;
+            this.column = column;
+            this.score = score;
+        }
+
+        public int getRotation() {
+            return rotation;
+        }
+
+        public int getColumn() {
+            return column;
+        }
+
+        public double getScore() {
+            return score;
+        }
+    }
+
+    Placement choose(Engine engine);        // null when no placement is reachable
+
+    @Override
+    default void placePiece(Engine engine) {        // rotating at spawn, then shifting to the chosen column, dropping is left to the caller
+        Placement placement = choose(engine);
+        if(placement != null){
+            moveTo(engine, placement.rotation, placement.column);
+        }
+    }
+
+    static void moveTo(Engine engine, int rotation, int column){        // rotating, then shifting towards the column of the piece box until blocked
+        for(int i = 0; i < 4 && engine.tetro.getRotation() != rotation; i++){
+            engine.rotateTetromino();
+        }
+        while(engine.tetro.getColumnPos() != column){
+            int current = engine.tetro.getColumnPos();
+            engine.moveTetromino(current < column ? Engine.Direction.RIGHT : Engine.Direction.LEFT);
+            if(engine.tetro.getColumnPos() == current){      // blocked on the way
+                break;
+            }
+        }
+    }
+}
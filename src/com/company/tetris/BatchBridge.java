@@ -0,0 +1,146 @@
+/*
+        Project title: Tetris
+        Author: Jakub Sobczyński
+        GitHub: https://github.com/J-Sob
+ */
+
+package com.company.tetris;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.LockSupport;
+
+public class BatchBridge {      // serves a BatchEnvironment to a trainer in another process through a memory mapped file
+
+    /*
+        File layout, native byte order, every region starts at a multiple of 8:
+        header of HEADER_SIZE bytes: int magic, int version, int envs, int rows, int columns, int words, int preview depth,
+        int command, int request, int response
+        actions: int per game, written by the trainer
+        rewards: int per game
+        dones: int per game, 1 when the game ended and was restarted
+        invalid: int per game, 1 when the action was outside 0 to rotations * columns or unreachable and the game was ended for it
+        pieces: BatchEnvironment.PIECE_FIELDS ints per game
+        queue: preview depth ints per game
+        boards: rows * words longs per game, bit j of a row set when column j is filled
+        The trainer writes actions and command, then increments request with a release store. The bridge runs the command,
+        writes observations and stores the request number into response with a release store, which the trainer waits for.
+        Both sides spin briefly and then sleep, so a trainer stepping in a tight loop does not pay for a wake up.
+     */
+    static final int MAGIC = 0x54424531;        // "TBE1"
+    static final int VERSION = 2;
+    static final int HEADER_SIZE = 64;
+    static final int COMMAND = 28;      // header offsets
+    static final int REQUEST = 32;
+    static final int RESPONSE = 36;
+    static final int STEP = 1;      // commands
+    static final int RESET = 2;
+    static final int CLOSE = 3;
+    static final int SPINS = 1 << 14;       // busy waits before the bridge starts sleeping between checks
+    static final long IDLE_NANOS = 50_000;
+    static final VarHandle INT = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+
+    final BatchEnvironment environment;
+    final MappedByteBuffer buffer;
+    final int actionsOffset;
+    final int rewardsOffset;
+    final int donesOffset;
+    final int invalidOffset;
+    final int piecesOffset;
+    final int queueOffset;
+    final int boardsOffset;
+    final int[] actions;
+
+    public BatchBridge(BatchEnvironment environment, Path path) throws IOException {
+        this.environment = environment;
+        int envs = environment.envs;
+        actionsOffset = HEADER_SIZE;
+        rewardsOffset = align(actionsOffset + envs * 4);
+        donesOffset = align(rewardsOffset + envs * 4);
+        invalidOffset = align(donesOffset + envs * 4);
+        piecesOffset = align(invalidOffset + envs * 4);
+        queueOffset = align(piecesOffset + envs * BatchEnvironment.PIECE_FIELDS * 4);
+        boardsOffset = align(queueOffset + envs * environment.previewDepth * 4);
+        int size = boardsOffset + environment.boards.length * 8;
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)){
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+        buffer.order(ByteOrder.nativeOrder());
+        actions = new int[envs];
+        buffer.putInt(4, VERSION).putInt(8, envs).putInt(12, environment.rows).putInt(16, environment.columns)
+                .putInt(20, environment.words).putInt(24, environment.previewDepth);
+        writeObservations();
+        INT.setRelease(buffer, 0, MAGIC);       // last, a trainer that sees the magic sees the whole header
+    }
+
+    static int align(int offset){
+        return (offset + 7) & ~7;
+    }
+
+    public void run(){      // serving requests until the trainer sends CLOSE
+        int served = 0;
+        int idle = 0;
+        while(true){
+            int request = (int) INT.getAcquire(buffer, REQUEST);
+            if(request == served){
+                if(++idle < SPINS){
+                    Thread.onSpinWait();
+                }else{
+                    LockSupport.parkNanos(IDLE_NANOS);
+                }
+                continue;
+            }
+            idle = 0;
+            int command = buffer.getInt(COMMAND);
+            if(command == CLOSE){
+                INT.setRelease(buffer, RESPONSE, request);
+                return;
+            }
+            if(command == RESET){
+                environment.reset();
+            }else{
+                buffer.asIntBuffer().get(actionsOffset / 4, actions);
+                environment.step(actions);
+            }
+            writeObservations();
+            served = request;
+            INT.setRelease(buffer, RESPONSE, request);
+        }
+    }
+
+    void writeObservations(){
+        BatchEnvironment e = environment;
+        buffer.asIntBuffer().put(rewardsOffset / 4, e.rewards);
+        for(int i = 0; i < e.envs; i++){
+            buffer.putInt(donesOffset + i * 4, e.dones[i] ? 1 : 0);
+            buffer.putInt(invalidOffset + i * 4, e.invalid[i] ? 1 : 0);
+        }
+        buffer.asIntBuffer().put(piecesOffset / 4, e.pieces);
+        buffer.asIntBuffer().put(queueOffset / 4, e.queue);
+        buffer.asLongBuffer().put(boardsOffset / 8, e.boards);
+    }
+
+    public static void main(String[] args) throws IOException {         // usage: BatchBridge file [games] [threads] [rows] [columns] [preview depth] [seed]
+        Path path = Paths.get(args[0]);
+        int envs = args.length > 1 ? Integer.parseInt(args[1]) : 1024;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        int rows = args.length > 3 ? Integer.parseInt(args[3]) : Engine.DEFAULT_ROWS;
+        int columns = args.length > 4 ? Integer.parseInt(args[4]) : Engine.DEFAULT_COLUMNS;
+        int previewDepth = args.length > 5 ? Integer.parseInt(args[5]) : 1;
+        long seed = args.length > 6 ? Long.parseLong(args[6]) : System.nanoTime();
+
+        BatchEnvironment environment = new BatchEnvironment(envs, rows, columns, previewDepth, seed, threads);
+        BatchBridge bridge = new BatchBridge(environment, path);
+        System.out.printf("Serving %d games on %s%n", envs, path);
+        bridge.run();
+        environment.close();
+        System.out.printf("Closed after %d steps%n", environment.getSteps());
+    }
+}
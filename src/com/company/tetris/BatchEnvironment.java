@@ -0,0 +1,203 @@
+/*
+        Project title: Tetris
+        Author: Jakub Sobczyński
+        GitHub: https://github.com/J-Sob
+ */
+
+package com.company.tetris;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+public class BatchEnvironment {         // many games stepped together one placement at a time, for training placement policies
+
+    /*
+        An action places the falling piece: rotation * columns + column of its leftmost cell, the piece is rotated
+        and shifted there at spawn as far as the stack lets it and hard dropped. step() applies one action per game
+        and writes what every game looks like afterwards into arrays allocated once, game i at offset i times the size
+        of one game. A game that ends is reported as done together with the reward of its last step
+        and restarted right away, its observation is then the first state of the next game.
+        An action outside 0 to getActions(), or one the piece cannot reach from its spawn position because the target
+        does not fit or the rotation or shift is blocked on the way, ends the game of its environment the same way,
+        with no reward and the invalid flag set, the other games step as usual.
+        Games are split between threads in ranges, each game is only ever touched by one thread during a step.
+     */
+    static final int PIECE_FIELDS = 4;      // shape ordinal, rotation, row and column of the piece box
+
+    final int envs;
+    final int rows;
+    final int columns;
+    final int words;
+    final int previewDepth;
+    final Engine[] engines;
+    final long[] boards;        // row masks as in Engine.gameBoard, rows * words longs per game
+    final int[] pieces;         // PIECE_FIELDS per game
+    final int[] queue;      // ordinals of the upcoming shapes, previewDepth per game
+    final int[] rewards;        // score gained by the last step
+    final boolean[] dones;      // the last step ended the game and it was restarted
+    final boolean[] invalid;        // the last action was out of range, dones is set too
+    final int[] scores;         // score of every game before the step, for rewards
+    final ForkJoinPool pool;        // null when stepping on the calling thread
+    final int rangeSize;        // games per task
+    int[] actions;      // of the step in progress
+    long steps;
+
+    class StepTask extends RecursiveAction {        // splits games in halves down to rangeSize
+        private static final long serialVersionUID = 1L;
+        final int from;
+        final int to;
+
+        StepTask(int from, int to){
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if(to - from > rangeSize){
+                int middle = (from + to) >>> 1;
+                invokeAll(new StepTask(from, middle), new StepTask(middle, to));
+                return;
+            }
+            stepRange(from, to);
+        }
+    }
+
+    public BatchEnvironment(int envs, int rows, int columns, int previewDepth, long seed, int threads){      // game i is seeded with seed + i
+        if(threads < 1){
+            throw new IllegalArgumentException("Threads must be at least 1: " + threads);
+        }
+        this.envs = envs;
+        this.rows = rows;
+        this.columns = columns;
+        this.words = Bitboard.words(columns);
+        this.previewDepth = previewDepth;
+        this.engines = new Engine[envs];
+        for(int i = 0; i < envs; i++){
+            engines[i] = new Engine(rows, columns, seed + i, false, previewDepth);
+        }
+        this.boards = new long[envs * rows * words];
+        this.pieces = new int[envs * PIECE_FIELDS];
+        this.queue = new int[envs * previewDepth];
+        this.rewards = new int[envs];
+        this.dones = new boolean[envs];
+        this.invalid = new boolean[envs];
+        this.scores = new int[envs];
+        this.pool = threads > 1 ? new ForkJoinPool(threads) : null;
+        this.rangeSize = Math.max(64, envs / (threads * 4));
+        for(int i = 0; i < envs; i++){
+            observe(i);
+        }
+    }
+
+    public int getActions(){        // number of different actions, every int from 0 below it is valid
+        return RotationTable.ROTATIONS * columns;
+    }
+
+    public void step(int[] actions){
+        this.actions = actions;
+        if(pool != null && envs > rangeSize){
+            pool.invoke(new StepTask(0, envs));
+        }else{
+            stepRange(0, envs);
+        }
+        this.actions = null;
+        steps += envs;
+    }
+
+    void stepRange(int from, int to){
+        int[] actions = this.actions;
+        for(int i = from; i < to; i++){
+            Engine engine = engines[i];
+            invalid[i] = !place(engine, actions[i]);
+            if(invalid[i]){
+                rewards[i] = 0;
+                dones[i] = true;
+                engine.restartGame();
+                observe(i);
+                continue;
+            }
+            engine.hardDrop();
+            rewards[i] = engine.getScore() - scores[i];
+            dones[i] = engine.isGameOver();
+            if(dones[i]){
+                engine.restartGame();
+            }
+            observe(i);
+        }
+    }
+
+    boolean place(Engine engine, int action){       // moving the piece to the placement of the action, false when it is out of range or unreachable
+        if(action < 0 || action >= RotationTable.ROTATIONS * columns){
+            return false;
+        }
+        int rotation = action / columns;
+        int orientation = RotationTable.orientation(engine.tetro.getShape(), rotation);
+        int column = action % columns - RotationTable.MIN_COLUMN[orientation];
+        if(!Bitboard.fits(engine.gameBoard, columns, orientation, engine.tetro.getRowPos(), column)){
+            return false;
+        }
+        Agent.moveTo(engine, rotation, column);
+        return engine.tetro.getRotation() == rotation && engine.tetro.getColumnPos() == column;      // blocked on the way otherwise
+    }
+
+    public void reset(){        // new games everywhere, next seeds of every game's own sequence
+        for(int i = 0; i < envs; i++){
+            if(engines[i].getPiecesPlaced() > 0){
+                engines[i].restartGame();
+            }
+            rewards[i] = 0;
+            dones[i] = false;
+            invalid[i] = false;
+            observe(i);
+        }
+    }
+
+    void observe(int i){
+        Engine engine = engines[i];
+        System.arraycopy(engine.gameBoard, 0, boards, i * rows * words, rows * words);
+        int p = i * PIECE_FIELDS;
+        pieces[p] = engine.tetro.getShape().ordinal();
+        pieces[p + 1] = engine.tetro.getRotation();
+        pieces[p + 2] = engine.tetro.getRowPos();
+        pieces[p + 3] = engine.tetro.getColumnPos();
+        for(int k = 0; k < previewDepth; k++){
+            queue[i * previewDepth + k] = engine.getUpcomingShape(k).ordinal();
+        }
+        scores[i] = engine.getScore();
+    }
+
+    public void close(){
+        if(pool != null){
+            pool.shutdown();
+        }
+    }
+
+    public long[] getBoards() {
+        return boards;
+    }
+
+    public int[] getPieces() {
+        return pieces;
+    }
+
+    public int[] getQueue() {
+        return queue;
+    }
+
+    public int[] getRewards() {
+        return rewards;
+    }
+
+    public boolean[] getDones() {
+        return dones;
+    }
+
+    public boolean[] getInvalid() {
+        return invalid;
+    }
+
+    public long getSteps() {
+        return steps;
+    }
+}
@@ -0,0 +1,241 @@
+/*
+        Project title: Tetris
+        Author: Jakub Sobczyński
+        GitHub: https://github.com/J-Sob
+ */
+
+package com.company.tetris;
+
+import java.util.Arrays;
+
+final class Bitboard {      // operations on a board stored as bitset rows, shared by the engine and by search code that works on copies of the board
+
+    /*
+        A row takes words(columns) longs and row i starts at index i * words, bit j of a row is column j.
+        Pieces are given as 4 bit row masks of their box and may stick out of the box on the left,
+        callers check walls first so every set cell is inside the board.
+     */
+
+    private Bitboard(){}
+
+    static int words(int columns){      // longs needed for one row
+        return (columns + 63) >>> 6;
+    }
+
+    static long lastWordMask(int columns){      // columns used in the last word of a row
+        return -1L >>> (-columns & 63);
+    }
+
+    static boolean overlaps(long[] board, int words, int row, int mask, int column){         // piece row placed at column hits filled cells
+        if(words == 1){         // boards up to 64 columns
+            return (board[row] & (column >= 0 ? (long) mask << column : (long) mask >>> -column)) != 0;
+        }
+        if(column < 0){
+            mask >>>= -column;
+            column = 0;
+        }
+        int index = row * words + (column >>> 6);
+        int bit = column & 63;
+        if((board[index] & (long) mask << bit) != 0){
+            return true;
+        }
+        long high = bit > 60 ? (long) mask >>> (64 - bit) : 0;      // part of the piece that crosses into the next word
+        return high != 0 && (board[index + 1] & high) != 0;
+    }
+
+    static void set(long[] board, int words, int row, int mask, int column){
+        if(words == 1){
+            board[row] |= column >= 0 ? (long) mask << column : (long) mask >>> -column;
+            return;
+        }
+        if(column < 0){
+            mask >>>= -column;
+            column = 0;
+        }
+        int index = row * words + (column >>> 6);
+        int bit = column & 63;
+        board[index] |= (long) mask << bit;
+        long high = bit > 60 ? (long) mask >>> (64 - bit) : 0;
+        if(high != 0){
+            board[index + 1] |= high;
+        }
+    }
+
+    static boolean fits(long[] board, int columns, int orientation, int row, int column){        // piece inside walls, floor and top, not overlapping the stack
+        if(column + RotationTable.MIN_COLUMN[orientation] < 0 || column + RotationTable.MAX_COLUMN[orientation] >= columns){
+            return false;
+        }
+        int words = words(columns);
+        int minRow = RotationTable.MIN_ROW[orientation];
+        int maxRow = RotationTable.MAX_ROW[orientation];
+        if(row + minRow < 0 || (row + maxRow) * words >= board.length){
+            return false;
+        }
+        for(int i = minRow; i <= maxRow; i++){
+            if(overlaps(board, words, row + i, RotationTable.rowMask(orientation, i), column)){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static int dropRow(long[] board, int columns, int orientation, int row, int column){         // lowest row the piece reaches falling straight down from given one
+        while(fits(board, columns, orientation, row + 1, column)){
+            row++;
+        }
+        return row;
+    }
+
+    static int dropRow(long[] board, int columns, int[] tops, int orientation, int row, int column){       // same with the top of every column known, the piece lands on the highest of at most 4 columns
+        int landing = Integer.MAX_VALUE;
+        for(int j = RotationTable.MIN_COLUMN[orientation]; j <= RotationTable.MAX_COLUMN[orientation]; j++){       // pieces have cells in every column between their bounds
+            int top = tops[column + j];
+            int bottom = RotationTable.BOTTOM[orientation * 4 + j];
+            if(row + bottom >= top){        // piece is tucked under an overhang, it has to fall row by row
+                return dropRow(board, columns, orientation, row, column);
+            }
+            landing = Math.min(landing, top - 1 - bottom);
+        }
+        return landing;
+    }
+
+    static void placeTops(int[] tops, int orientation, int row, int column){        // column tops after placing a piece, as long as no line is cleared
+        for(int j = RotationTable.MIN_COLUMN[orientation]; j <= RotationTable.MAX_COLUMN[orientation]; j++){
+            tops[column + j] = Math.min(tops[column + j], row + RotationTable.TOP[orientation * 4 + j]);
+        }
+    }
+
+    static void place(long[] board, int columns, int orientation, int row, int column){
+        int words = words(columns);
+        for(int i = RotationTable.MIN_ROW[orientation]; i <= RotationTable.MAX_ROW[orientation]; i++){
+            set(board, words, row + i, RotationTable.rowMask(orientation, i), column);
+        }
+    }
+
+    static boolean isFull(long[] board, int columns, int row){
+        int words = words(columns);
+        int index = row * words;
+        for(int w = 0; w < words - 1; w++){
+            if(board[index + w] != -1L){
+                return false;
+            }
+        }
+        return board[index + words - 1] == lastWordMask(columns);
+    }
+
+    static boolean isEmpty(long[] board, int words, int row){
+        for(int w = row * words; w < (row + 1) * words; w++){
+            if(board[w] != 0){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static int findFullRows(long[] board, int columns, int top, int bottom, int[] rows){        // full rows between top and bottom written to rows, bottom first, returns their number
+        int count = 0;
+        for(int i = bottom; i >= top; i--){
+            if(isFull(board, columns, i)){
+                rows[count++] = i;
+            }
+        }
+        return count;
+    }
+
+    static void removeRows(long[] board, int columns, int[] rows, int count, int stackTop){         // compacting the stack over removed rows, only rows between stackTop and the lowest removed one move
+        int words = words(columns);
+        for(int k = 0; k < count; k++){        // every block of rows between two removed ones moves down by the number of removed rows below it
+            int last = rows[k] - 1;
+            int first = k + 1 < count ? rows[k + 1] + 1 : stackTop;
+            if(last >= first){
+                System.arraycopy(board, first * words, board, (first + k + 1) * words, (last - first + 1) * words);
+            }
+        }
+        Arrays.fill(board, stackTop * words, (stackTop + count) * words, 0);
+    }
+
+    static int clearLines(long[] board, int columns, int top, int bottom, int stackTop, int[] rows){       // removing full rows between top and bottom, returns number of rows removed
+        int count = findFullRows(board, columns, top, bottom, rows);
+        if(count > 0){
+            removeRows(board, columns, rows, count, stackTop);
+        }
+        return count;
+    }
+
+    static int nextColumn(long[] board, int columns, int row, int from, boolean filled){        // first column from given one that is filled or empty, columns when there is none
+        int words = words(columns);
+        int base = row * words;
+        int w = from >>> 6;
+        if(w >= words){
+            return columns;
+        }
+        long word = (filled ? board[base + w] : ~board[base + w]) & (-1L << from);
+        while(word == 0){
+            if(++w == words){
+                return columns;
+            }
+            word = filled ? board[base + w] : ~board[base + w];
+        }
+        return Math.min(columns, w * 64 + Long.numberOfTrailingZeros(word));
+    }
+
+    static int columnHeights(long[] board, int columns, int[] heights){      // fills heights of every column, returns aggregate height
+        int words = words(columns);
+        int rows = board.length / words;
+        int total = 0;
+        for(int w = 0; w < words; w++){
+            long full = w == words - 1 ? lastWordMask(columns) : -1L;
+            long seen = 0;
+            for(int i = 0; i < rows && seen != full; i++){
+                long fresh = board[i * words + w] & ~seen;
+                while(fresh != 0){
+                    int column = w * 64 + Long.numberOfTrailingZeros(fresh);
+                    fresh &= fresh - 1;
+                    heights[column] = rows - i;
+                    total += rows - i;
+                }
+                seen |= board[i * words + w];
+            }
+            long missing = full & ~seen;
+            while(missing != 0){
+                heights[w * 64 + Long.numberOfTrailingZeros(missing)] = 0;
+                missing &= missing - 1;
+            }
+        }
+        return total;
+    }
+
+    static void columnTops(long[] board, int columns, int[] tops){      // highest filled row of every column, number of rows when the column is empty
+        int rows = board.length / words(columns);
+        columnHeights(board, columns, tops);
+        for(int j = 0; j < columns; j++){
+            tops[j] = rows - tops[j];
+        }
+    }
+
+    static int columnTop(long[] board, int columns, int column, int from){      // first filled row of one column from given row down
+        int words = words(columns);
+        int w = column >>> 6;
+        long bit = 1L << column;
+        int rows = board.length / words;
+        for(int i = from; i < rows; i++){
+            if((board[i * words + w] & bit) != 0){
+                return i;
+            }
+        }
+        return rows;
+    }
+
+    static int holes(long[] board, int columns){         // empty cells with a filled cell somewhere above them
+        int words = words(columns);
+        int holes = 0;
+        for(int w = 0; w < words; w++){
+            long covered = 0;
+            for(int i = w; i < board.length; i += words){
+                holes += Long.bitCount(covered & ~board[i]);
+                covered |= board[i];
+            }
+        }
+        return holes;
+    }
+}
@@ -0,0 +1,179 @@
+/*
+        Project title: Tetris
+        Author: Jakub Sobczyński
+        GitHub: https://github.com/J-Sob
+ */
+
+package com.company.tetris;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.CRC32C;
+
+public class Checkpoint {       // keeps the latest state of a running game in a small memory mapped file, so it survives a crash or power loss
+
+    /*
+        The file starts with a header: int file magic, int rows, int columns, int preview depth, int slot size.
+        A file written for another board or another state format is refused instead of being read at the wrong offsets.
+        Two slots follow, checkpoints go to them in turn so the previous one stays intact while the next is written.
+        Slot layout: int magic, int payload length, long sequence, int CRC32C of length, sequence and payload, GameState.write() payload.
+        A torn or half flushed slot fails its checksum and the other slot is used, the valid slot with the higher sequence wins.
+        The game thread only takes a GameState snapshot and hands it over, encoding, checksumming and flushing to disk
+        happen on a writer thread. When checkpoints come faster than the disk takes them only the newest one is written.
+     */
+    static final int MAGIC = 0x54434B31;        // "TCK1"
+    static final int FILE_MAGIC = 0x54434B46;       // "TCKF"
+    static final int FILE_HEADER = 32;
+    static final int SLOT_HEADER = 20;
+
+    final Path path;
+    final MappedByteBuffer buffer;
+    final int slotSize;
+    final ByteBuffer payload;       // encoding space of the writer thread
+    final AtomicReference<GameState> pending = new AtomicReference<>();        // newest state not written yet
+    final Thread writer;
+    volatile boolean closed;
+    long sequence;
+    long written;
+
+    public Checkpoint(Path path, Engine engine) throws IOException {        // slots sized for the board of the engine, the previous contents stay until overwritten
+        this.path = path;
+        int rows = engine.getBoardRows();
+        int columns = engine.getBoardColumns();
+        int previewDepth = engine.getPreviewDepth();
+        this.slotSize = SLOT_HEADER + GameState.maxSize(rows, columns, previewDepth);
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)){
+            boolean fresh = channel.size() == 0;
+            if(!fresh){
+                ByteBuffer header = ByteBuffer.allocate(FILE_HEADER);
+                if(channel.read(header, 0) < FILE_HEADER || header.getInt(0) != FILE_MAGIC){
+                    throw new IOException("Not a checkpoint file: " + path);
+                }
+                if(header.getInt(4) != rows || header.getInt(8) != columns || header.getInt(12) != previewDepth){
+                    throw new IOException("Checkpoint " + path + " was written for a " + header.getInt(4) + "x" + header.getInt(8) + " board with preview depth " + header.getInt(12));
+                }
+                if(header.getInt(16) != slotSize){
+                    throw new IOException("Checkpoint " + path + " has slots of another state format");
+                }
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, FILE_HEADER + 2L * slotSize);
+            if(fresh){
+                buffer.putInt(4, rows).putInt(8, columns).putInt(12, previewDepth).putInt(16, slotSize);
+                buffer.putInt(0, FILE_MAGIC);
+                buffer.force(0, FILE_HEADER);
+            }
+        }
+        this.payload = ByteBuffer.allocate(slotSize - SLOT_HEADER);
+        for(int slot = 0; slot < 2; slot++){
+            if(validLength(buffer, slotOffset(slot), slotSize) >= 0){
+                sequence = Math.max(sequence, buffer.getLong(slotOffset(slot) + 8) + 1);
+            }
+        }
+        writer = new Thread(this::run, "checkpoint-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    int slotOffset(int slot){
+        return FILE_HEADER + slot * slotSize;
+    }
+
+    public void save(GameState state){      // never blocks, called on the game thread
+        if(pending.getAndSet(state) == null){       // otherwise the writer has not taken the previous state yet and will see this one
+            LockSupport.unpark(writer);
+        }
+    }
+
+    void run(){
+        while(true){
+            GameState state = pending.getAndSet(null);
+            if(state != null){
+                write(state);
+            }else if(closed){
+                return;
+            }else{
+                LockSupport.park(this);
+            }
+        }
+    }
+
+    void write(GameState state){
+        payload.clear();
+        state.write(payload);
+        payload.flip();
+        int length = payload.remaining();
+        int offset = slotOffset((int) (sequence & 1));
+        buffer.putInt(offset, 0);       // slot is invalid while it is being written, even if the checksum would match by chance
+        buffer.put(offset + SLOT_HEADER, payload, 0, length);
+        buffer.putInt(offset + 4, length);
+        buffer.putLong(offset + 8, sequence);
+        buffer.putInt(offset + 16, checksum(buffer, offset, length));
+        buffer.putInt(offset, MAGIC);
+        buffer.force(offset, SLOT_HEADER + length);
+        sequence++;
+        written++;
+    }
+
+    static int checksum(ByteBuffer slots, int offset, int length){      // over length, sequence and payload
+        CRC32C crc = new CRC32C();
+        crc.update(slots.slice(offset + 4, 12));
+        crc.update(slots.slice(offset + SLOT_HEADER, length));
+        return (int) crc.getValue();
+    }
+
+    static int validLength(ByteBuffer slots, int offset, int slotSize){        // payload length of an intact slot, -1 otherwise
+        if(slots.getInt(offset) != MAGIC){
+            return -1;
+        }
+        int length = slots.getInt(offset + 4);
+        if(length < 0 || length > slotSize - SLOT_HEADER || checksum(slots, offset, length) != slots.getInt(offset + 16)){
+            return -1;
+        }
+        return length;
+    }
+
+    public GameState load(){        // newest intact checkpoint, null when there is none
+        int best = -1;
+        long bestSequence = -1;
+        for(int slot = 0; slot < 2; slot++){
+            int offset = slotOffset(slot);
+            if(validLength(buffer, offset, slotSize) >= 0 && buffer.getLong(offset + 8) > bestSequence){
+                best = offset;
+                bestSequence = buffer.getLong(offset + 8);
+            }
+        }
+        if(best < 0){
+            return null;
+        }
+        try {
+            return new GameState(buffer.slice(best + SLOT_HEADER, buffer.getInt(best + 4)));
+        } catch (RuntimeException e) {      // checksum matched a payload of another format
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    public void close(){        // writing the state still pending and stopping the writer
+        closed = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public long getWritten() {
+        return written;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+}
@@ -7,13 +7,7 @@
 
 package com.company.tetris;
 
-import java.io.BufferedWriter;
-import java.io.File;
-import java.io.FileWriter;
-import java.io.IOException;
 import java.util.Arrays;
-import java.util.List;
-import java.util.Random;
 
 public class Engine {       // engine class containing game logic
 
@@ -31,87 +25,73 @@ public class Engine {       // engine class containing game logic
         LEFT,
         DOWN,
     }
+    enum Input{         // player actions consumed by the game loop on a tick
+        LEFT,
+        RIGHT,
+        SOFT_DROP,
+        ROTATE,
+        HARD_DROP,      // added last, replays store inputs by ordinal
+    }
 
     protected class Tetromino{      // inner class to create pieces called "Tetrominos"
 
         Shape shape;
-        int rowPos;         // row and colums positions of the array containing the piece
+        int rotation;       // 0 is the spawn orientation, every clockwise turn adds one
+        int orientation;        // index of shape and rotation in RotationTable
+        int rowPos;         // row and colums positions of the 4x4 box containing the piece
         int columnPos;
-        boolean[][] tetroPosition;
 
-        public Tetromino(){     // constructor that creates piece with random shape on top of the board
-            this.tetroPosition = new boolean[4][4];
-            for(boolean[] row : tetroPosition) {
-                Arrays.fill(row, false);
-            }
-            this.rowPos = 0;
-            this.columnPos = getBoardColumns() / 2 - 2;
-            List<Shape> shapes = Arrays.asList(Shape.values());
-            Random random = new Random();
-            this.shape = shapes.get(random.nextInt(shapes.size()));
-
-            switch (shape) {
-                case ISHAPE -> {
-                    tetroPosition[1][0] = true;
-                    tetroPosition[1][1] = true;
-                    tetroPosition[1][2] = true;
-                    tetroPosition[1][3] = true;
-                }
-                case TSHAPE -> {
-                    tetroPosition[0][1] = true;
-                    tetroPosition[0][2] = true;
-                    tetroPosition[0][3] = true;
-                    tetroPosition[1][2] = true;
-                }
-                case RECTSHAPE -> {
-                    tetroPosition[0][1] = true;
-                    tetroPosition[0][2] = true;
-                    tetroPosition[1][1] = true;
-                    tetroPosition[1][2] = true;
-                }
-                case LSHAPE -> {
-                    tetroPosition[1][1] = true;
-                    tetroPosition[1][2] = true;
-                    tetroPosition[0][3] = true;
-                    tetroPosition[1][3] = true;
-                }
-                case JSHAPE -> {
-                    tetroPosition[1][1] = true;
-                    tetroPosition[1][2] = true;
-                    tetroPosition[1][3] = true;
-                    tetroPosition[0][1] = true;
-                }
-                case SSHAPE -> {
-                    tetroPosition[0][2] = true;
-                    tetroPosition[0][3] = true;
-                    tetroPosition[1][1] = true;
-                    tetroPosition[1][2] = true;
-                }
-                case ZSHAPE -> {
-                    tetroPosition[0][1] = true;
-                    tetroPosition[0][2] = true;
-                    tetroPosition[1][2] = true;
-                    tetroPosition[1][3] = true;
-                }
-            }
+        public Tetromino(Shape shape){     // constructor that creates piece of given shape on top of the board
+            reset(shape);
         }
 
         public Tetromino(Tetromino tetro){      // copy constructor
             this.shape = tetro.shape;
+            this.rotation = tetro.rotation;
+            this.orientation = tetro.orientation;
             this.rowPos = tetro.rowPos;
             this.columnPos = tetro.columnPos;
-            tetroPosition = new boolean[4][4];
-            for(int i = 0; i < 4; i++){
-                tetroPosition[i] = Arrays.copyOf(tetro.tetroPosition[i], tetro.tetroPosition.length);
-            }
         }
 
-        public void setTetroPosition(int i, int j, boolean bool){
-            this.tetroPosition[i][j] = bool;
+        void reset(Shape shape){        // reusing the piece object for a newly spawned piece
+            this.shape = shape;
+            this.rotation = 0;
+            this.orientation = RotationTable.orientation(shape, 0);
+            this.rowPos = 0;
+            this.columnPos = getBoardColumns() / 2 - 2;
+        }
+
+        int rowMask(int i){     // columns occupied in given row of the box
+            return RotationTable.rowMask(orientation, i);
+        }
+
+        int minRow(){
+            return RotationTable.MIN_ROW[orientation];
+        }
+
+        int maxRow(){
+            return RotationTable.MAX_ROW[orientation];
+        }
+
+        int minColumn(){
+            return RotationTable.MIN_COLUMN[orientation];
+        }
+
+        int maxColumn(){
+            return RotationTable.MAX_COLUMN[orientation];
         }
 
         public boolean getTetroPosition(int i, int j){
-            return this.tetroPosition[i][j];
+            return (rowMask(i) >>> j & 1) != 0;
+        }
+
+        public int getRotation() {
+            return rotation;
+        }
+
+        public void setRotation(int rotation) {
+            this.rotation = rotation;
+            this.orientation = RotationTable.orientation(shape, rotation);
         }
 
         public Shape getShape() {
@@ -120,6 +100,7 @@ public class Engine {       // engine class containing game logic
 
         public void setShape(Shape shape) {
             this.shape = shape;
+            this.orientation = RotationTable.orientation(shape, rotation);
         }
 
         public int getRowPos() {
@@ -139,45 +120,242 @@ public class Engine {       // engine class containing game logic
         }
     }
 
-    final int boardRows = 20;
-    final int boardColumns = 10;
-    final boolean[][] gameBoard;
+    static class ClearResult{       // outcome of the last lock, reused so locking a piece does not allocate
+        int lines;      // number of rows cleared
+        final int[] rows = new int[4];      // indices of cleared rows before the stack was compacted, bottom first
+        int points;
+        boolean backToBack;         // tetris directly following another tetris
+        int combo;          // number of consecutive locks that cleared lines, minus one
+
+        public int getLines() {
+            return lines;
+        }
+
+        public int getRow(int i) {
+            return rows[i];
+        }
+
+        public int getPoints() {
+            return points;
+        }
+
+        public boolean isBackToBack() {
+            return backToBack;
+        }
+
+        public int getCombo() {
+            return combo;
+        }
+    }
+
+    static final int[] LINE_POINTS = {0, 100, 300, 500, 800};      // points for single, double, triple and tetris
+    static final int COMBO_POINTS = 50;
+
+    static final int DEFAULT_ROWS = 20;
+    static final int DEFAULT_COLUMNS = 10;
+    static final int MIN_SIZE = 4;      // smallest board a piece fits on in every rotation
+    static final int MAX_ROWS = 1 << 16;
+    static final int MAX_COLUMNS = 512;
+
+    static final int LINES_PER_LEVEL = 10;
+    static final int MAX_LEVEL = 20;        // instant drop from here on
+    static final int GRAVITY_UNIT = 256;        // level gravity is counted in 1/256 of a row per tick
+    static final int[] LEVEL_GRAVITY = new int[MAX_LEVEL + 1];      // rows per tick in GRAVITY_UNIT, index is the level
+    static final int DEFAULT_LOCK_DELAY = 30;       // ticks a landed piece waits before it locks when levels are on
+    static final int DEFAULT_LOCK_RESETS = 15;      // moves and rotations on the ground that restart the lock delay, per piece and row
+
+    static {        // guideline speed curve, (0.8 - (level - 1) * 0.007)^(level - 1) seconds per row, ending at 20 rows per tick
+        for(int level = 1; level <= MAX_LEVEL; level++){
+            double secondsPerRow = Math.pow(0.8 - (level - 1) * 0.007, level - 1);
+            LEVEL_GRAVITY[level] = (int) Math.min(20 * GRAVITY_UNIT, Math.round(GRAVITY_UNIT / (secondsPerRow * GameLoop.TICKS_PER_SECOND)));
+        }
+        LEVEL_GRAVITY[MAX_LEVEL] = 20 * GRAVITY_UNIT;
+    }
+
+    final int boardRows;
+    final int boardColumns;
+    final int words;        // longs per row of gameBoard
+    long[] gameBoard;      // bitset rows, see Bitboard, bit j of row i is set when column j is occupied
+    boolean boardShared;        // gameBoard is also referenced by a snapshot and has to be copied before it changes
+    int stackTop;       // rows above this one are empty, line clears move only rows below it
+    final int[] columnTop;      // highest filled row of every column, boardRows when it is empty, kept by addToStack() and line clears
+    final Zobrist zobrist;
+    long zobristHash;       // hash of the stack, kept up to date by addToStack() and line clears
     int score;
     boolean gameOver;
-    Tetromino tetro;
-    Tetromino upcomingTetro;
+    int piecesPlaced;       // statistics of current game, used by headless simulations
+    int linesCleared;
+    final ClearResult lastClear = new ClearResult();
+    boolean lastClearWasTetris;
+    int combo = -1;
+    final long[] dirtyRows;         // bit i is set when row i of the stack changed since the renderer last asked
+    int version;        // incremented on every change visible on screen, renderer skips frames when it did not move
+    int gravityRows = 1;        // the piece falls gravityRows rows every gravityTicks ticks, spread evenly over them
+    int gravityTicks = 36;      // 0.6 s per row at 60 ticks per second until levels are turned on
+    int gravityCounter;         // gravityRows added every tick, a row is taken off for every gravityTicks
+    int startLevel;         // 0 keeps gravity fixed, otherwise gravity follows the level reached from here
+    int level;
+    int lockDelay;      // ticks a landed piece waits before it locks, 0 locks on the next gravity step as it always did
+    int maxLockResets = DEFAULT_LOCK_RESETS;
+    int lockCounter;        // ticks the piece has been landed
+    int lockResets;         // lock delay restarts used at the lowest row reached
+    int lowestRow;      // lowest row the falling piece has reached
+    long tickCount;
+    final EngineEvents events = new EngineEvents();         // changes waiting for publishEvents()
+    final PieceGenerator generator;         // seeded queue of upcoming shapes
+    final Tetromino tetro;      // currently falling piece, reused for every spawned piece
+    Metrics metrics;        // null unless this game is measured
 
 
     public Engine() {
-        gameBoard = new boolean[boardRows][boardColumns];       // initializing board
+        this(System.nanoTime());
+    }
+
+    public Engine(long seed) {
+        this(seed, false, 1);
+    }
+
+    public Engine(long seed, boolean sevenBag, int previewDepth) {
+        this(DEFAULT_ROWS, DEFAULT_COLUMNS, seed, sevenBag, previewDepth);
+    }
+
+    public Engine(int boardRows, int boardColumns, long seed, boolean sevenBag, int previewDepth) {      // same seed and settings always give the same sequence of pieces
+        if(boardRows < MIN_SIZE || boardRows > MAX_ROWS || boardColumns < MIN_SIZE || boardColumns > MAX_COLUMNS){
+            throw new IllegalArgumentException("Board size must be between " + MIN_SIZE + "x" + MIN_SIZE + " and " + MAX_ROWS + "x" + MAX_COLUMNS + ": " + boardRows + "x" + boardColumns);
+        }
+        this.boardRows = boardRows;
+        this.boardColumns = boardColumns;
+        this.words = Bitboard.words(boardColumns);
+        gameBoard = new long[boardRows * words];       // initializing board
+        dirtyRows = new long[(boardRows + 63) >>> 6];
+        zobrist = new Zobrist(boardRows, boardColumns);
+        columnTop = new int[boardColumns];
         this.score = 0;
         this.gameOver = false;
-        tetro = new Tetromino();        // currently falling piece
-        upcomingTetro = new Tetromino();        // piece next in the line
+        generator = new PieceGenerator(seed, sevenBag, previewDepth);
+        tetro = new Tetromino(generator.next());
         clearBoard();
     }
 
-    void checkBoard(){      // function checks if any row has been filled with pieces
-        for(int i = boardRows - 1; i >= 0; i--)
+    void tick(){        // one step of the fixed rate game clock: gravity and lock delay, then every event of the tick is published
+        if(!gameOver){
+            gravityCounter += gravityRows;
+            if(gravityCounter >= gravityTicks){
+                int rows = gravityCounter / gravityTicks;
+                gravityCounter -= rows * gravityTicks;
+                fall(rows);
+            }
+            if(lockDelay > 0 && !gameOver){
+                if(!isLanded()){
+                    lockCounter = 0;
+                }else if(++lockCounter >= lockDelay){
+                    lowerTetromino();
+                }
+            }
+        }
+        tickCount++;
+        publishEvents();
+    }
+
+    void fall(int rows){        // gravity step of any number of rows, resolved against the stack at once so 20G costs as much as 1/64 G
+        int row = tetro.getRowPos();
+        int landing = landingRow();
+        if(row == landing){
+            if(lockDelay == 0){
+                lowerTetromino();       // locks
+            }
+            return;
+        }
+        tetro.setRowPos(Math.min(landing, row + rows));
+        reachedRow();
+        version++;
+        events.add(EngineEvents.PIECE_MOVED, tetro.getRowPos(), tetro.getColumnPos(), 0);
+    }
+
+    void reachedRow(){      // a new lowest row gives the piece its lock resets back
+        if(tetro.getRowPos() > lowestRow){
+            lowestRow = tetro.getRowPos();
+            lockResets = 0;
+        }
+    }
+
+    void moved(){       // moving or rotating a landed piece restarts its lock delay a limited number of times
+        if(lockCounter > 0 && lockResets < maxLockResets){
+            lockCounter = 0;
+            lockResets++;
+        }
+    }
+
+    void applyInput(Input input){       // player input taken from the game loop queue before a tick
+        if(gameOver){
+            return;
+        }
+        switch (input){
+            case LEFT -> moveTetromino(Direction.LEFT);
+            case RIGHT -> moveTetromino(Direction.RIGHT);
+            case SOFT_DROP -> moveTetromino(Direction.DOWN);
+            case ROTATE -> rotateTetromino();
+            case HARD_DROP -> hardDrop();
+        }
+    }
+
+    void hardDrop(){        // piece falls as far as it can and locks in the same step
+        tetro.setRowPos(landingRow());
+        lowerTetromino();
+    }
+
+    boolean isLanded(){         // piece cannot fall any further, renderer does not interpolate it then
+        return landingRow() == tetro.getRowPos();
+    }
+
+    int landingRow(){       // row where the falling piece would lock if it dropped straight down, also the row of the ghost piece
+        return Bitboard.dropRow(gameBoard, boardColumns, columnTop, tetro.orientation, tetro.getRowPos(), tetro.getColumnPos());
+    }
+
+    ClearResult checkBoard(){      // called when a piece locks, clears full rows it touched and compacts the stack in one pass
+        ClearResult result = lastClear;
+        result.lines = 0;
+        int top = Math.max(0, tetro.getRowPos() + tetro.minRow());
+        int bottom = Math.min(boardRows - 1, tetro.getRowPos() + tetro.maxRow());
+        result.lines = Bitboard.findFullRows(gameBoard, boardColumns, top, bottom, result.rows);
+        if(result.lines > 0)
         {
-            int usedSlots = 0;
-            for(int j = 0; j < boardColumns; j++)
-            {
-                if(gameBoard[i][j]) usedSlots++;
+            zobristHash ^= zobrist.rows(gameBoard, stackTop, result.rows[0]);      // rows that move are hashed out and back in at their new places
+            Bitboard.removeRows(gameBoard, boardColumns, result.rows, result.lines, stackTop);
+            zobristHash ^= zobrist.rows(gameBoard, stackTop, result.rows[0]);
+            markDirty(stackTop, result.rows[0]);        // every stack row above the lowest cleared one has moved
+            stackTop += result.lines;
+            clearColumnTops(result.rows, result.lines);
+            linesCleared += result.lines;
+            if(startLevel > 0 && startLevel + linesCleared / LINES_PER_LEVEL != level){
+                setLevel(startLevel + linesCleared / LINES_PER_LEVEL);
+                events.add(EngineEvents.LEVEL_CHANGED, level, 0, 0);
             }
-            if(usedSlots == boardColumns)
-            {
-                clearRow(i);
-                addPoints();
-                lowerRows(i);
+        }
+        addPoints(result);
+        return result;
+    }
+
+    void clearColumnTops(int[] cleared, int lines){         // cleared rows were full, so every column had its top at or above them and has moved
+        for(int j = 0; j < boardColumns; j++){
+            int top = columnTop[j];
+            int below = 0;
+            boolean removed = false;
+            for(int k = 0; k < lines; k++){
+                if(cleared[k] > top){
+                    below++;
+                }else if(cleared[k] == top){
+                    removed = true;
+                }
             }
+            columnTop[j] = removed ? Bitboard.columnTop(gameBoard, boardColumns, j, stackTop) : top + below;
         }
     }
 
     void moveTetromino(Direction dir){      // moving a piece, if piece collides with either wall or stack, move gets reversed
         switch (dir){
             case DOWN -> {
-                if(!gameOver){
+                if(!gameOver && (lockDelay == 0 || !isLanded())){       // with a lock delay soft drop only moves, locking is left to the delay
                     lowerTetromino();
                 }
             }
@@ -186,6 +364,10 @@ public class Engine {       // engine class containing game logic
                 tetro.setColumnPos(initialColumnPos - 1);
                 if(leftCollision() || stackCollision()) {
                     tetro.setColumnPos(initialColumnPos);
+                }else{
+                    moved();
+                    version++;
+                    events.add(EngineEvents.PIECE_MOVED, tetro.getRowPos(), tetro.getColumnPos(), 0);
                 }
             }
             case RIGHT -> {
@@ -193,198 +375,275 @@ public class Engine {       // engine class containing game logic
                 tetro.setColumnPos(initialColumnPos + 1);
                 if(rightCollision() || stackCollision()) {
                     tetro.setColumnPos(initialColumnPos);
+                }else{
+                    moved();
+                    version++;
+                    events.add(EngineEvents.PIECE_MOVED, tetro.getRowPos(), tetro.getColumnPos(), 0);
                 }
             }
         }
     }
 
-    void rotateTetromino(){         // same logic as with moving, if new position collides, move gets reversed
-        boolean[][] temp = new boolean[4][4];
-        for(int i = 0; i < 4; i++)
-        {
-            for(int j = 0; j < 4; j++)
-            {
-                temp[i][j] = tetro.getTetroPosition(i,j);
-            }
-        }
+    void rotateTetromino(){         // rotating clockwise, used by the UP key
+        rotateTetromino(RotationTable.CLOCKWISE);
+    }
 
+    void rotateTetromino(int direction){        // trying wall kicks of the new orientation in order, if all of them collide rotation gets reversed
+        int initialRotation = tetro.getRotation();
+        int initialRowPos = tetro.getRowPos();
         int initialColumnPos = tetro.getColumnPos();
-        for(int i = 0; i < 4; i++)
-        {
-            for(int j = 0; j < 4; j++)
-            {
-                tetro.setTetroPosition(i, j, temp[3 - j][i]);
-            }
-        }
-
-        while(leftCollision())
-        {
-            tetro.setColumnPos(initialColumnPos + 1);
-        }
-
-        while(rightCollision())
+        int[] kicks = RotationTable.KICKS[tetro.orientation * 2 + direction];
+        tetro.setRotation(RotationTable.rotate(initialRotation, direction));
+        for(int k = 0; k < kicks.length; k += 2)
         {
-            tetro.setColumnPos(initialColumnPos - 1);
-        }
-
-        if(stackCollision())
-        {
-            for(int i = 0; i < 4; i++)
+            tetro.setColumnPos(initialColumnPos + kicks[k]);
+            tetro.setRowPos(initialRowPos + kicks[k + 1]);
+            if(!leftCollision() && !rightCollision() && !bottomCollision() && !topCollision() && !stackCollision())
             {
-                for(int j = 0; j < 4; j++)
-                {
-                    tetro.setTetroPosition(i,j,temp[i][j]);
-                }
+                moved();
+                reachedRow();       // kicks may move the piece down
+                version++;
+                events.add(EngineEvents.PIECE_ROTATED, tetro.getRowPos(), tetro.getColumnPos(), tetro.getRotation());
+                return;
             }
-            tetro.setColumnPos(initialColumnPos);
         }
+        tetro.setRotation(initialRotation);
+        tetro.setRowPos(initialRowPos);
+        tetro.setColumnPos(initialColumnPos);
     }
 
     void lowerTetromino(){      // appending piece, if it collides with either stack or bottom it's added to the stack
         int initialRowPos = tetro.getRowPos();
         tetro.setRowPos(initialRowPos + 1);
+        version++;
         if(bottomCollision() || stackCollision()){
             tetro.setRowPos(initialRowPos);
             addToStack();
-            tetro = new Tetromino(upcomingTetro);       // current piece becomes next piece in the line
-            upcomingTetro = new Tetromino();        // next piece is generated
-            if(stackCollision()){           // if newly created piece collides with stack, game is over
-                this.gameOver = true;
+            piecesPlaced++;
+            events.add(EngineEvents.PIECE_LOCKED, tetro.getRowPos(), tetro.getColumnPos(), tetro.getShape().ordinal() | tetro.getRotation() << 16);
+            long start = metrics != null ? metrics.start() : 0;
+            checkBoard();
+            if(start != 0){
+                metrics.record(metrics.lineCheck, start);
             }
+            spawnTetromino();
+        }else{
+            reachedRow();
+            events.add(EngineEvents.PIECE_MOVED, tetro.getRowPos(), tetro.getColumnPos(), 0);
+        }
+    }
+
+    void spawnTetromino(){      // current piece becomes next piece in the line
+        tetro.reset(generator.next());
+        gravityCounter = 0;
+        lockCounter = 0;
+        lockResets = 0;
+        lowestRow = tetro.getRowPos();
+        events.add(EngineEvents.NEXT_PIECE_CHANGED, generator.peek(0).ordinal(), 0, 0);
+        if(stackCollision()){           // if newly created piece collides with stack, game is over
+            this.gameOver = true;
+            events.add(EngineEvents.GAME_OVER, score, 0, 0);
         }
     }
 
     boolean stackCollision(){       // checking for stack collision
-        for(int i = 0; i < 4; i++)
+        long[] board = gameBoard;
+        int column = tetro.getColumnPos();
+        for(int i = tetro.minRow(); i <= tetro.maxRow(); i++)
         {
-            for(int j = 0; j < 4; j++)
+            int realRowPos = tetro.getRowPos() + i;
+            if(realRowPos >= 0 && realRowPos < boardRows && Bitboard.overlaps(board, words, realRowPos, tetro.rowMask(i), column))
             {
-                if(tetro.getTetroPosition(i,j))
-                {
-                    int realColumnPos = tetro.getColumnPos() + j;
-                    int realRowPos = tetro.getRowPos() + i;
-                    if(gameBoard[realRowPos][realColumnPos])
-                    {
-                        return true;
-                    }
-                }
+                return true;
             }
         }
         return false;
     }
 
     boolean bottomCollision(){      // checking for bottom collision
-        for(int i = 0; i < 4; i++)
-        {
-            for(int j = 0; j < 4; j++)
-            {
-                if(tetro.getTetroPosition(i, j))
-                {
-                    int realRowPos = tetro.getRowPos() + i;
-                    if(realRowPos == boardRows)
-                    {
-                        return true;
-                    }
-                }
-            }
-        }
-        return false;
+        return tetro.getRowPos() + tetro.maxRow() >= boardRows;
+    }
+
+    boolean topCollision(){     // checking if a wall kick pushed the piece above the board
+        return tetro.getRowPos() + tetro.minRow() < 0;
     }
 
     boolean leftCollision(){        // checking for left wall collision
-        for(int i = 0; i < 4; i++)
-        {
-            for(int j = 0; j < 4; j++)
-            {
-                if(tetro.getTetroPosition(i, j))
-                {
-                    int realColumnPos = tetro.getColumnPos() + j;
-                    if(realColumnPos < 0)
-                    {
-                        return true;
-                    }
-                }
-            }
-        }
-        return false;
+        return tetro.getColumnPos() + tetro.minColumn() < 0;
     }
 
     boolean rightCollision(){       // checking for right wall collision
-        for(int i = 0; i < 4; i++)
+        return tetro.getColumnPos() + tetro.maxColumn() >= boardColumns;
+    }
+
+    void addToStack(){      // function changes states in the gameBoard array according to fallen piece position
+        assert lockedCells() == 4 : "piece locked outside the board: " + tetro.getShape() + " at " + tetro.getRowPos() + ", " + tetro.getColumnPos();
+        ensureBoardWritable();
+        for(int i = tetro.minRow(); i <= tetro.maxRow(); i++)
         {
-            for(int j = 0; j < 4; j++)
-            {
-                if(tetro.getTetroPosition(i, j))
-                {
-                    int realColumnPos = tetro.getColumnPos() + j;
-                    if(realColumnPos >= boardColumns)
-                    {
-                        return true;
-                    }
-                }
-            }
+            Bitboard.set(gameBoard, words, tetro.getRowPos() + i, tetro.rowMask(i), tetro.getColumnPos());
         }
-        return false;
+        zobristHash = zobrist.place(zobristHash, tetro.orientation, tetro.getRowPos(), tetro.getColumnPos());
+        stackTop = Math.min(stackTop, tetro.getRowPos() + tetro.minRow());
+        Bitboard.placeTops(columnTop, tetro.orientation, tetro.getRowPos(), tetro.getColumnPos());
+        markDirty(tetro.getRowPos() + tetro.minRow(), tetro.getRowPos() + tetro.maxRow());
     }
 
-    void addToStack(){      // function changes states in the gameBoard array according to fallen piece position
-        for(int i = 0; i < 4; i++)
+    int lockedCells(){      // cells of the falling piece that are on the board, checked with -ea before every lock
+        int cells = 0;
+        for(int i = tetro.minRow(); i <= tetro.maxRow(); i++)
         {
-            for(int j = 0; j < 4; j++)
-            {
-                if(tetro.getTetroPosition(i, j))
-                {
-                    int realColumnPos = tetro.getColumnPos() + j;
-                    int realRowPos = tetro.getRowPos() + i;
-                    gameBoard[realRowPos][realColumnPos] = true;
+            int row = tetro.getRowPos() + i;
+            int column = tetro.getColumnPos();
+            for(int mask = tetro.rowMask(i); mask != 0; mask &= mask - 1){
+                int j = column + Integer.numberOfTrailingZeros(mask);
+                if(row >= 0 && row < boardRows && j >= 0 && j < boardColumns){
+                    cells++;
                 }
             }
         }
+        return cells;
     }
 
-    void lowerRows(int index){      // lowers all rows before given index
-        for(int i = index - 1; i > 0; i--)
-        {
-            for(int j = 0; j < boardColumns; j++)
-            {
-                gameBoard[i+1][j] = gameBoard[i][j];
-                gameBoard[i][j] = gameBoard[i-1][j];
+    void markDirty(int first, int last){        // rows from first to last inclusive need repainting
+        for(int i = first; i <= last; ){
+            int end = Math.min(last, i | 63);
+            dirtyRows[i >>> 6] |= (-1L >>> (63 - (end & 63))) & (-1L << i);
+            i = end + 1;
+        }
+    }
+
+    int nextDirtyRow(int from){         // first changed row from given one, -1 when there is none
+        int w = from >>> 6;
+        if(w >= dirtyRows.length){
+            return -1;
+        }
+        long word = dirtyRows[w] & (-1L << from);
+        while(word == 0){
+            if(++w == dirtyRows.length){
+                return -1;
             }
+            word = dirtyRows[w];
         }
+        return w * 64 + Long.numberOfTrailingZeros(word);
     }
 
-    void clearBoard(){      // filling array with 0's
-        for(boolean[] row : gameBoard){
-            Arrays.fill(row,false);
+    void clearDirtyRows(){      // renderer drew every changed row it shows
+        Arrays.fill(dirtyRows, 0);
+    }
+
+    void ensureBoardWritable(){         // copy on write of rows shared with snapshots
+        if(boardShared){
+            gameBoard = gameBoard.clone();
+            boardShared = false;
+        }
+    }
+
+    public GameState snapshot(){        // immutable copy of the whole game, the board array is shared until the engine changes it
+        boardShared = true;
+        return new GameState(this);
+    }
+
+    public void restore(GameState state){       // going back to a snapshot taken from an engine with the same board size and randomizer settings
+        if(state.rows.length != boardRows * words || state.columns != boardColumns){
+            throw new IllegalArgumentException("Snapshot has a different board size");
         }
+        gameBoard = state.rows;
+        boardShared = true;
+        zobristHash = zobrist.hash(gameBoard);
+        stackTop = 0;
+        while(stackTop < boardRows && Bitboard.isEmpty(gameBoard, words, stackTop)){
+            stackTop++;
+        }
+        Bitboard.columnTops(gameBoard, boardColumns, columnTop);
+        generator.restore(state);
+        tetro.shape = state.shape;
+        tetro.setRotation(state.rotation);
+        tetro.setRowPos(state.rowPos);
+        tetro.setColumnPos(state.columnPos);
+        score = state.score;
+        gameOver = state.gameOver;
+        piecesPlaced = state.piecesPlaced;
+        linesCleared = state.linesCleared;
+        combo = state.combo;
+        lastClearWasTetris = state.lastClearWasTetris;
+        gravityRows = state.gravityRows;
+        gravityTicks = state.gravityTicks;
+        gravityCounter = state.gravityCounter;
+        startLevel = state.startLevel;
+        level = state.level;
+        lockDelay = state.lockDelay;
+        maxLockResets = state.maxLockResets;
+        lockCounter = state.lockCounter;
+        lockResets = state.lockResets;
+        lowestRow = state.lowestRow;
+        tickCount = state.tickCount;
+        lastClear.lines = 0;
+        markDirty(0, boardRows - 1);
+        version++;
+        events.add(EngineEvents.SCORE_CHANGED, score, 0, 0);
+        events.add(EngineEvents.NEXT_PIECE_CHANGED, generator.peek(0).ordinal(), 0, 0);
+    }
+
+    void clearBoard(){      // filling array with 0's
+        ensureBoardWritable();
+        Arrays.fill(gameBoard, 0);
+        zobristHash = 0;
+        stackTop = boardRows;
+        Arrays.fill(columnTop, boardRows);
+        markDirty(0, boardRows - 1);
+        version++;
     }
 
-    void clearRow(int index){       // filling row of given index with 0's
-        for(int i = 0; i < boardColumns; i++){
-            gameBoard[index][i] = false;
+    static int points(int lines, boolean backToBack, int combo){        // scoring rules shared with GameState.apply()
+        int points = LINE_POINTS[lines];
+        if(backToBack){
+            points += points / 2;
         }
+        return points + COMBO_POINTS * combo;
     }
 
-    void saveScore(String nickname) throws IOException {        // function saves score after losing with given nickname
-        File file = new File("scores.txt");
-        if(!file.exists()){
-            file.createNewFile();
+    void addPoints(ClearResult result){       // points depend on number of lines, tetrises in a row earn half more and consecutive clears add a combo bonus
+        if(result.lines == 0){
+            combo = -1;
+            result.points = 0;
+            result.backToBack = false;
+            result.combo = 0;
+            return;
         }
-        BufferedWriter bufferedWriter = new BufferedWriter(new FileWriter(file,true));
-        bufferedWriter.write("Nickname: " + nickname + ", Score: " + getScore() + "\n");
-        bufferedWriter.close();
+        combo++;
+        boolean tetris = result.lines == 4;
+        result.backToBack = tetris && lastClearWasTetris;
+        result.combo = combo;
+        result.points = points(result.lines, result.backToBack, combo);
+        lastClearWasTetris = tetris;
+        this.score += result.points;
+        events.add(EngineEvents.LINES_CLEARED, result.lines, result.points, combo << 1 | (result.backToBack ? 1 : 0));
+        events.add(EngineEvents.SCORE_CHANGED, score, 0, 0);
     }
 
-    void addPoints(){       // very simple points system TODO: multiplier
-        this.score += 100;
+    void restartGame(){     // preparing for new game, next seed comes from the current sequence so a series of games stays reproducible
+        restartGame(generator.nextLong());
     }
 
-    void restartGame(){     // preparing for new game
+    void restartGame(long seed){
         clearBoard();
         this.score = 0;
         this.gameOver = false;
-        this.tetro = new Tetromino();
-        this.upcomingTetro = new Tetromino();
+        this.piecesPlaced = 0;
+        this.linesCleared = 0;
+        this.lastClear.lines = 0;
+        this.lastClearWasTetris = false;
+        this.combo = -1;
+        this.tickCount = 0;
+        generator.reset(seed);
+        events.clear();
+        events.add(EngineEvents.SCORE_CHANGED, 0, 0, 0);
+        if(startLevel > 0){
+            setLevel(startLevel);
+            events.add(EngineEvents.LEVEL_CHANGED, level, 0, 0);
+        }
+        spawnTetromino();
     }
 
     public int getBoardRows() {
@@ -395,8 +654,106 @@ public class Engine {       // engine class containing game logic
         return boardColumns;
     }
 
+    public Shape getUpcomingShape(int index){       // index 0 is the next piece
+        return generator.peek(index);
+    }
+
+    public int getPreviewDepth(){
+        return generator.getPreviewDepth();
+    }
+
+    public boolean getUpcomingTileStatus(int index, int i, int j){      // cells of upcoming piece in its spawn orientation
+        return (RotationTable.rowMask(RotationTable.orientation(generator.peek(index), 0), i) >>> j & 1) != 0;
+    }
+
+    public long getSeed(){
+        return generator.seed;
+    }
+
+    public long boardHash(){        // Zobrist hash of the stack, equal boards have equal hashes, replays compare it after re-simulating a game
+        return zobristHash;
+    }
+
     public boolean getTileStatus(int i, int j){
-        return this.gameBoard[i][j];
+        return (this.gameBoard[i * words + (j >>> 6)] >>> j & 1) != 0;
+    }
+
+    public int nextTile(int row, int column, boolean filled){       // first column from given one with given status, board width when there is none
+        return Bitboard.nextColumn(gameBoard, boardColumns, row, column, filled);
+    }
+
+    public void addListener(EngineListener listener){
+        events.addListener(listener);
+    }
+
+    public void removeListener(EngineListener listener){
+        events.removeListener(listener);
+    }
+
+    public void publishEvents(){        // delivering every event recorded since previous call, once per tick
+        events.publish();
+    }
+
+    public double getFallProgress(){        // part of the way to the next row, between 0 and 1
+        return (double) gravityCounter / gravityTicks;
+    }
+
+    public double getGravity(){         // rows per tick
+        return (double) gravityRows / gravityTicks;
+    }
+
+    public int getGravityTicks() {
+        return gravityTicks;
+    }
+
+    public void setGravityTicks(int gravityTicks) {         // fixed gravity of one row every gravityTicks ticks
+        this.gravityRows = 1;
+        this.gravityTicks = gravityTicks;
+    }
+
+    void setLevel(int level){       // gravity of the level, progress to the next row is kept
+        this.level = level;
+        gravityCounter = (int) ((long) gravityCounter * GRAVITY_UNIT / gravityTicks);
+        gravityRows = LEVEL_GRAVITY[Math.min(level, MAX_LEVEL)];
+        gravityTicks = GRAVITY_UNIT;
+    }
+
+    public void setStartLevel(int startLevel) {         // 0 goes back to fixed gravity, the level rises every LINES_PER_LEVEL lines cleared
+        this.startLevel = startLevel;
+        if(startLevel > 0){
+            setLevel(startLevel + linesCleared / LINES_PER_LEVEL);
+        }else{
+            this.level = 0;
+        }
+    }
+
+    public int getStartLevel() {
+        return startLevel;
+    }
+
+    public int getLevel() {         // 0 while gravity is fixed
+        return level;
+    }
+
+    public void setLockDelay(int lockDelay, int maxLockResets) {        // in ticks, 0 locks a landed piece on the next gravity step
+        this.lockDelay = lockDelay;
+        this.maxLockResets = maxLockResets;
+    }
+
+    public int getLockDelay() {
+        return lockDelay;
+    }
+
+    public int getMaxLockResets() {
+        return maxLockResets;
+    }
+
+    public long getTickCount() {
+        return tickCount;
+    }
+
+    public int getVersion() {
+        return version;
     }
 
     public int getScore() {
@@ -410,4 +767,16 @@ public class Engine {       // engine class containing game logic
     public boolean isGameOver() {
         return gameOver;
     }
+
+    public ClearResult getLastClear() {
+        return lastClear;
+    }
+
+    public int getPiecesPlaced() {
+        return piecesPlaced;
+    }
+
+    public int getLinesCleared() {
+        return linesCleared;
+    }
 }
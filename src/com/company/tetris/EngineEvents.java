@@ -0,0 +1,99 @@
+/*
+        Project title: Tetris
+        Author: Jakub Sobczyński
+        GitHub: https://github.com/J-Sob
+ */
+
+package com.company.tetris;
+
+import java.util.Arrays;
+
+final class EngineEvents {      // preallocated ring buffer collecting engine events until they are published
+
+    static final int PIECE_MOVED = 0;
+    static final int PIECE_ROTATED = 1;
+    static final int PIECE_LOCKED = 2;
+    static final int LINES_CLEARED = 3;
+    static final int SCORE_CHANGED = 4;
+    static final int NEXT_PIECE_CHANGED = 5;
+    static final int GAME_OVER = 6;
+    static final int LEVEL_CHANGED = 7;
+
+    static final int EVENT_SIZE = 4;        // type followed by three arguments
+    static final int CAPACITY = 256;        // events kept before the buffer is published early, power of two
+
+    final int[] buffer = new int[CAPACITY * EVENT_SIZE];
+    long head;      // next event to deliver
+    long tail;      // next free slot
+    EngineListener[] listeners = new EngineListener[0];
+
+    boolean hasListeners(){
+        return listeners.length > 0;
+    }
+
+    void addListener(EngineListener listener){
+        listeners = Arrays.copyOf(listeners, listeners.length + 1);
+        listeners[listeners.length - 1] = listener;
+    }
+
+    void removeListener(EngineListener listener){
+        for(int i = 0; i < listeners.length; i++){
+            if(listeners[i] == listener){
+                EngineListener[] remaining = new EngineListener[listeners.length - 1];
+                System.arraycopy(listeners, 0, remaining, 0, i);
+                System.arraycopy(listeners, i + 1, remaining, i, remaining.length - i);
+                listeners = remaining;
+                return;
+            }
+        }
+    }
+
+    void add(int type, int a, int b, int c){
+        if(listeners.length == 0){
+            return;
+        }
+        if(tail - head == CAPACITY){        // buffer is full, delivering what is there to make room
+            deliver();
+        }
+        int slot = (int) (tail & (CAPACITY - 1)) * EVENT_SIZE;
+        buffer[slot] = type;
+        buffer[slot + 1] = a;
+        buffer[slot + 2] = b;
+        buffer[slot + 3] = c;
+        tail++;
+    }
+
+    void publish(){
+        deliver();
+        for(EngineListener listener : listeners){
+            listener.eventsPublished();
+        }
+    }
+
+    void clear(){
+        head = tail;
+    }
+
+    private void deliver(){
+        EngineListener[] targets = listeners;
+        while(head < tail){
+            int slot = (int) (head & (CAPACITY - 1)) * EVENT_SIZE;
+            head++;
+            int a = buffer[slot + 1];
+            int b = buffer[slot + 2];
+            int c = buffer[slot + 3];
+            for(EngineListener listener : targets){
+                switch (buffer[slot]) {
+                    case PIECE_MOVED -> listener.pieceMoved(a, b);
+                    case PIECE_ROTATED -> listener.pieceRotated(c, a, b);
+                    case PIECE_LOCKED -> listener.pieceLocked(PieceGenerator.SHAPES[c & 0xFFFF], c >>> 16, a, b);
+                    case LINES_CLEARED -> listener.linesCleared(a, b, c >> 1, (c & 1) != 0);
+                    case SCORE_CHANGED -> listener.scoreChanged(a);
+                    case NEXT_PIECE_CHANGED -> listener.nextPieceChanged(PieceGenerator.SHAPES[a]);
+                    case GAME_OVER -> listener.gameOver(a);
+                    case LEVEL_CHANGED -> listener.levelChanged(a);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,28 @@
+/*
+        Project title: Tetris
+        Author: Jakub Sobczyński
+        GitHub: https://github.com/J-Sob
+ */
+
+package com.company.tetris;
+
+public interface EngineListener {       // receives changes of engine state, all methods are called from Engine.publishEvents()
+
+    default void pieceMoved(int row, int column){}
+
+    default void pieceRotated(int rotation, int row, int column){}
+
+    default void pieceLocked(Engine.Shape shape, int rotation, int row, int column){}
+
+    default void linesCleared(int lines, int points, int combo, boolean backToBack){}
+
+    default void scoreChanged(int score){}
+
+    default void nextPieceChanged(Engine.Shape shape){}
+
+    default void gameOver(int score){}
+
+    default void levelChanged(int level){}
+
+    default void eventsPublished(){}        // called after each batch, when every event of a tick has been delivered
+}
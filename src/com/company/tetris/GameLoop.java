@@ -0,0 +1,266 @@
+/*
+        Project title: Tetris
+        Author: Jakub Sobczyński
+        GitHub: https://github.com/J-Sob
+ */
+
+package com.company.tetris;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class GameLoop {     // fixed timestep clock ticking the engine at a constant rate no matter how often frames are drawn
+
+    static final int TICKS_PER_SECOND = 60;
+    static final long TICK_NANOS = 1_000_000_000L / TICKS_PER_SECOND;
+    static final int MAX_CATCH_UP_TICKS = 10;       // after a longer stall the clock skips ahead instead of running a burst of ticks
+
+    static final long DEFAULT_DAS_NANOS = 10 * TICK_NANOS;       // delayed auto shift, how long a side key is held before it repeats
+    static final long DEFAULT_ARR_NANOS = 2 * TICK_NANOS;        // auto repeat rate, time between repeats, 0 moves straight to the wall
+    static final long DEFAULT_SOFT_DROP_NANOS = 2 * TICK_NANOS;      // time between steps of a held soft drop
+
+    static class InputQueue {       // key presses and releases with the time they happened, consumed by the first tick at or after that time
+
+        /*
+            Lock-free ring for one producer and one consumer: the key handler only writes tail, the tick only writes head,
+            so the producer may run on another thread than the game loop. Events arriving when the ring is full are dropped.
+            A reset does not touch head, it tells the tick thread up to where to skip.
+         */
+        final long[] times;
+        final Engine.Input[] inputs;
+        final boolean[] pressed;
+        final int mask;
+        final AtomicLong head = new AtomicLong();       // next event to poll
+        final AtomicLong tail = new AtomicLong();       // next free slot
+
+        InputQueue(int capacity){       // a power of two
+            this.times = new long[capacity];
+            this.inputs = new Engine.Input[capacity];
+            this.pressed = new boolean[capacity];
+            this.mask = capacity - 1;
+        }
+
+        boolean offer(Engine.Input input, boolean pressed, long time){
+            long t = tail.get();
+            if(t - head.get() == times.length){
+                return false;
+            }
+            int slot = (int) (t & mask);
+            times[slot] = time;
+            inputs[slot] = input;
+            this.pressed[slot] = pressed;
+            tail.lazySet(t + 1);        // publishes the slot written above
+            return true;
+        }
+
+        boolean hasEventUntil(long time){
+            long h = head.get();
+            return h != tail.get() && times[(int) (h & mask)] <= time;
+        }
+
+        long time(){        // of the event at the head
+            return times[(int) (head.get() & mask)];
+        }
+
+        Engine.Input input(){
+            return inputs[(int) (head.get() & mask)];
+        }
+
+        boolean pressed(){
+            return pressed[(int) (head.get() & mask)];
+        }
+
+        void remove(){
+            head.lazySet(head.get() + 1);
+        }
+
+        void skipTo(long position){         // dropping events offered before the producer saw given tail
+            if(position > head.get()){
+                head.lazySet(position);
+            }
+        }
+    }
+
+    final Engine engine;
+    final InputQueue inputQueue = new InputQueue(256);
+    final AtomicLong resetAt = new AtomicLong(-1);      // tail of the input queue when reset() was called, -1 when no reset is pending
+    long clock;         // time of the last simulated tick
+    boolean started;
+    ReplayRecorder recorder;        // when set, every applied input is written to the replay
+    Metrics metrics;        // when set, ticks and input times are measured
+    SpectatorStream spectatorStream;        // when set, gets a frame after every tick
+    long dasNanos = DEFAULT_DAS_NANOS;
+    long arrNanos = DEFAULT_ARR_NANOS;
+    long softDropNanos = DEFAULT_SOFT_DROP_NANOS;
+    final boolean[] held = new boolean[Engine.Input.values().length];       // keys pressed and not released
+    Engine.Input shift;         // LEFT or RIGHT repeating while held, the one pressed last wins
+    long nextShift;         // game clock time of its next repeat
+    long nextSoftDrop;
+
+    public GameLoop(Engine engine){
+        this.engine = engine;
+    }
+
+    public void press(Engine.Input input, long time){
+        inputQueue.offer(input, true, time);
+    }
+
+    public void release(Engine.Input input, long time){
+        inputQueue.offer(input, false, time);
+    }
+
+    public double advance(long now){        // running every tick due until now, returns how far into the next tick we are for interpolation
+        applyReset();
+        if(!started){
+            clock = now;
+            started = true;
+        }
+        int ticks = 0;
+        while(now - clock >= TICK_NANOS){
+            clock += TICK_NANOS;
+            step(clock);
+            if(++ticks == MAX_CATCH_UP_TICKS && now - clock >= TICK_NANOS){
+                clock = now;
+                break;
+            }
+        }
+        return (double) (now - clock) / TICK_NANOS;
+    }
+
+    void step(long tickTime){       // one tick: key events that happened until tickTime, repeats of held keys, then the engine tick
+        while(inputQueue.hasEventUntil(tickTime)){
+            long time = inputQueue.time();
+            Engine.Input input = inputQueue.input();
+            if(inputQueue.pressed()){
+                keyPressed(input, time);
+            }else{
+                keyReleased(input, time);
+            }
+            inputQueue.remove();
+        }
+        repeatHeld(tickTime);
+        long start = metrics != null ? metrics.start() : 0;
+        engine.tick();
+        if(start != 0){
+            metrics.record(metrics.tick, start);
+        }
+        if(spectatorStream != null){
+            spectatorStream.publish();
+        }
+    }
+
+    void keyPressed(Engine.Input input, long time){         // a press acts at once, side keys and soft drop then repeat from the time of the press
+        if(held[input.ordinal()]){      // key repeat of the operating system, repeats come from DAS and ARR instead
+            return;
+        }
+        held[input.ordinal()] = true;
+        if(metrics != null){
+            metrics.inputApplied(time);
+        }
+        apply(input);
+        switch(input){
+            case LEFT, RIGHT -> {
+                shift = input;
+                nextShift = time + dasNanos;
+            }
+            case SOFT_DROP -> nextSoftDrop = time + softDropNanos;
+        }
+    }
+
+    void keyReleased(Engine.Input input, long time){       // releasing the side key that repeats hands over to the other one when it is still held
+        held[input.ordinal()] = false;
+        if(input == shift){
+            Engine.Input other = input == Engine.Input.LEFT ? Engine.Input.RIGHT : Engine.Input.LEFT;
+            if(held[other.ordinal()]){
+                shift = other;
+                nextShift = time + dasNanos;
+            }else{
+                shift = null;
+            }
+        }
+    }
+
+    void repeatHeld(long tickTime){         // every repeat due until tickTime
+        while(shift != null && nextShift <= tickTime){
+            if(!apply(shift)){         // blocked, repeats missed against the wall are skipped so the piece does not jump once it is free
+                if(arrNanos > 0){
+                    nextShift += ((tickTime - nextShift) / arrNanos + 1) * arrNanos;
+                }
+                break;
+            }
+            nextShift += arrNanos;
+        }
+        while(held[Engine.Input.SOFT_DROP.ordinal()] && nextSoftDrop <= tickTime){
+            apply(Engine.Input.SOFT_DROP);
+            nextSoftDrop += softDropNanos;
+        }
+    }
+
+    boolean apply(Engine.Input input){      // false when the input changed nothing, those are not recorded so a key held against a wall does not grow the replay
+        int version = engine.getVersion();
+        long tick = engine.getTickCount();
+        engine.applyInput(input);
+        if(engine.getVersion() == version){
+            return false;
+        }
+        if(recorder != null){
+            recorder.record(tick, input);
+        }
+        return true;
+    }
+
+    public long runHeadless(long maxTicks){         // same ticks without a wall clock, as fast as the engine goes, inputs are timed in tick numbers * TICK_NANOS
+        long ticks = 0;
+        applyReset();
+        if(!started){
+            clock = 0;
+            started = true;
+        }
+        while(ticks < maxTicks && !engine.isGameOver()){
+            clock += TICK_NANOS;
+            step(clock);
+            ticks++;
+        }
+        return ticks;
+    }
+
+    public void reset(){        // starting the clock again, used after a restart or pause, carried out by the next advance() on the tick thread
+        resetAt.set(inputQueue.tail.get());
+    }
+
+    void applyReset(){
+        long position = resetAt.getAndSet(-1);
+        if(position < 0){
+            return;
+        }
+        started = false;
+        inputQueue.skipTo(position);
+        Arrays.fill(held, false);
+        shift = null;
+    }
+
+    public void setHandling(long dasNanos, long arrNanos, long softDropNanos){      // repeat timing of held keys
+        if(dasNanos < 0 || arrNanos < 0 || softDropNanos <= 0){
+            throw new IllegalArgumentException("Key repeat times must not be negative and soft drop must take time");
+        }
+        this.dasNanos = dasNanos;
+        this.arrNanos = arrNanos;
+        this.softDropNanos = softDropNanos;
+    }
+
+    public void setRecorder(ReplayRecorder recorder) {
+        this.recorder = recorder;
+    }
+
+    public void setSpectatorStream(SpectatorStream spectatorStream) {
+        this.spectatorStream = spectatorStream;
+    }
+
+    public void setMetrics(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public long getClock() {
+        return clock;
+    }
+}
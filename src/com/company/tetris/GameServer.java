@@ -0,0 +1,309 @@
+/*
+        Project title: Tetris
+        Author: Jakub Sobczyński
+        GitHub: https://github.com/J-Sob
+ */
+
+package com.company.tetris;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+public class GameServer {       // hosts many independent games in one process, clients play them over TCP, see Protocol
+
+    static final int DEFAULT_PORT = 7777;
+    static final long WHEEL_RESOLUTION_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    static final int WHEEL_SLOTS_LOG2 = 6;      // 64 ms per turn, longer than a tick so every tick fires on its first pass
+    static final int MAX_PENDING_OUTPUT = 1 << 20;      // clients that fall this far behind are disconnected
+    static final long REPORT_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    class Session extends TimerWheel.Timer {        // one client and its game, touched only by the worker that owns it
+        final int id;
+        final Worker worker;
+        final SocketChannel channel;
+        final SelectionKey key;
+        final ByteBuffer input = ByteBuffer.allocate(256);
+        ByteBuffer output = ByteBuffer.allocate(1024);      // kept in write mode
+        Engine engine;
+        int sequence;       // last input applied
+        int sentSequence = -1;
+        int sentVersion = -1;
+        boolean playing;
+        boolean closed;
+
+        Session(int id, Worker worker, SocketChannel channel) throws IOException {
+            this.id = id;
+            this.worker = worker;
+            this.channel = channel;
+            this.key = channel.register(worker.selector, SelectionKey.OP_READ, this);
+        }
+
+        void connect(long seed){        // new game for a new or finished session
+            if(engine == null){
+                engine = new Engine(rows, columns, seed, false, 1);
+                ensureOutput(Protocol.HEADER_SIZE + Protocol.WELCOME_SIZE);
+                Protocol.putWelcome(output, id, rows, columns);
+            }else{
+                engine.restartGame(seed);
+                worker.wheel.cancel(this);
+            }
+            playing = true;
+            sentVersion = -1;
+            worker.wheel.schedule(this, System.nanoTime() + GameLoop.TICK_NANOS);
+        }
+
+        @Override
+        void expire(long now) {         // one tick of the game, late ticks are caught up to a limit like in GameLoop
+            long late = now - deadline;
+            int ticks = (int) Math.min(GameLoop.MAX_CATCH_UP_TICKS, 1 + late / GameLoop.TICK_NANOS);
+            for(int i = 0; i < ticks && !engine.isGameOver(); i++){
+                engine.tick();
+            }
+            worker.recordTick(late);
+            sendState();
+            if(engine.isGameOver()){
+                playing = false;
+                ensureOutput(Protocol.HEADER_SIZE + Protocol.GAME_OVER_SIZE);
+                Protocol.putGameOver(output, engine);
+            }else{
+                worker.wheel.schedule(this, Math.max(deadline + ticks * GameLoop.TICK_NANOS, now));       // only later than now when catching up hit its limit, then the schedule moves
+            }
+            flush();
+        }
+
+        void sendState(){       // only rows changed since the previous state
+            if(engine.getVersion() == sentVersion && sequence == sentSequence){
+                return;
+            }
+            int[] changed = worker.changedRows;
+            int count = 0;
+            for(int row = engine.nextDirtyRow(0); row >= 0; row = engine.nextDirtyRow(row + 1)){
+                changed[count++] = row;
+            }
+            engine.clearDirtyRows();
+            ensureOutput(Protocol.statesSize(engine, count));
+            Protocol.putStates(output, Protocol.STATE, engine, sequence, changed, count);
+            sentVersion = engine.getVersion();
+            sentSequence = sequence;
+        }
+
+        void read(){
+            try {
+                if(channel.read(input) < 0){
+                    close();
+                    return;
+                }
+            } catch (IOException e) {       // client went away
+                close();
+                return;
+            }
+            input.flip();
+            int length;
+            while((length = Protocol.messageLength(input)) >= 0){
+                int end = input.position() + 2 + length;
+                input.getShort();
+                byte type = input.get();
+                if(type == Protocol.CONNECT && length >= 9){
+                    connect(input.getLong());
+                }else if(type == Protocol.INPUT && length >= 6 && playing){
+                    int action = input.get();
+                    int nextSequence = input.getInt();
+                    if(action >= 0 && action < INPUTS.length){
+                        sequence = nextSequence;
+                        engine.applyInput(INPUTS[action]);      // applied before the next tick, like inputs of the local game loop
+                    }
+                }
+                input.position(end);
+            }
+            input.compact();
+            if(!input.hasRemaining()){      // a message longer than any valid one
+                close();
+                return;
+            }
+            flush();
+        }
+
+        void ensureOutput(int bytes){
+            if(output.remaining() < bytes){
+                output = ByteBuffer.allocate(Math.max(output.capacity() * 2, output.position() + bytes)).put(output.flip());
+            }
+        }
+
+        void flush(){       // writing what the socket takes now, the rest waits for OP_WRITE
+            if(closed || output.position() == 0){
+                return;
+            }
+            try {
+                output.flip();
+                channel.write(output);
+                output.compact();
+                if(output.position() > MAX_PENDING_OUTPUT){
+                    close();
+                    return;
+                }
+                key.interestOps(output.position() > 0 ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        void close(){
+            if(closed){
+                return;
+            }
+            closed = true;
+            worker.wheel.cancel(this);
+            worker.sessions--;
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    class Worker implements Runnable {      // one thread with its own selector and timer wheel, sessions never move between workers
+        final int index;
+        final Selector selector;
+        final TimerWheel wheel;
+        final ConcurrentLinkedQueue<SocketChannel> accepted = new ConcurrentLinkedQueue<>();
+        int[] changedRows = new int[Math.max(64, rows)];
+        int sessions;
+        long ticks;         // statistics of the current report interval
+        long busyNanos;
+        final long[] lateness = new long[1 << 16];      // first samples of the interval, enough for percentiles
+        int latenessCount;
+        long maxLateness;
+
+        Worker(int index) throws IOException {
+            this.index = index;
+            this.selector = Selector.open();
+            this.wheel = new TimerWheel(WHEEL_RESOLUTION_NANOS, WHEEL_SLOTS_LOG2, System.nanoTime());
+        }
+
+        void recordTick(long late){         // wheel slots are 1 ms wide, so a tick may fire slightly early
+            late = Math.max(0, late);
+            ticks++;
+            if(latenessCount < lateness.length){
+                lateness[latenessCount++] = late;
+            }
+            maxLateness = Math.max(maxLateness, late);
+        }
+
+        @Override
+        public void run() {
+            long reportTime = System.nanoTime() + REPORT_NANOS;
+            while(!Thread.currentThread().isInterrupted()){
+                try {
+                    long wait = wheel.nextSlotNanos() - System.nanoTime();
+                    if(wait > 0){
+                        selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(wait)));
+                    }else{
+                        selector.selectNow();
+                    }
+                    long start = System.nanoTime();
+                    SocketChannel channel;
+                    while((channel = accepted.poll()) != null){
+                        channel.configureBlocking(false);
+                        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                        new Session(nextId(), this, channel);
+                        sessions++;
+                    }
+                    for(SelectionKey key : selector.selectedKeys()){
+                        Session session = (Session) key.attachment();
+                        if(!key.isValid()){
+                            continue;
+                        }
+                        if(key.isReadable()){
+                            session.read();
+                        }
+                        if(key.isValid() && key.isWritable()){
+                            session.flush();
+                        }
+                    }
+                    selector.selectedKeys().clear();
+                    long now = System.nanoTime();
+                    wheel.advance(now);
+                    busyNanos += System.nanoTime() - start;
+                    if(now >= reportTime){
+                        report(REPORT_NANOS + now - reportTime);
+                        reportTime = now + REPORT_NANOS;
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        void report(long intervalNanos){        // printed by the worker itself so nothing is shared between threads
+            Arrays.sort(lateness, 0, latenessCount);
+            double seconds = intervalNanos / 1e9;
+            System.out.printf("worker %d: %d sessions, %.0f ticks/s, busy %.1f%%, tick late p50 %.2f ms, p99 %.2f ms, max %.2f ms%n",
+                    index, sessions, ticks / seconds, 100.0 * busyNanos / intervalNanos,
+                    percentile(0.5) / 1e6, percentile(0.99) / 1e6, maxLateness / 1e6);
+            ticks = 0;
+            busyNanos = 0;
+            latenessCount = 0;
+            maxLateness = 0;
+        }
+
+        long percentile(double fraction){
+            return latenessCount == 0 ? 0 : lateness[(int) Math.min(latenessCount - 1, latenessCount * fraction)];
+        }
+    }
+
+    static final Engine.Input[] INPUTS = Engine.Input.values();
+
+    final int rows;
+    final int columns;
+    final Worker[] workers;
+    int lastId;
+
+    GameServer(int workers, int rows, int columns) throws IOException {
+        this.rows = rows;
+        this.columns = columns;
+        this.workers = new Worker[workers];
+        for(int i = 0; i < workers; i++){
+            this.workers[i] = new Worker(i);
+        }
+    }
+
+    synchronized int nextId(){
+        return ++lastId;
+    }
+
+    void serve(int port) throws IOException {       // accepting on the calling thread, connections are dealt to workers in turn
+        for(Worker worker : workers){
+            Thread thread = new Thread(worker, "game-worker-" + worker.index);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        try(ServerSocketChannel server = ServerSocketChannel.open()){
+            server.bind(new InetSocketAddress("localhost", port), 1024);
+            System.out.printf("Serving %dx%d games on port %d with %d workers%n", rows, columns, port, workers.length);
+            for(int next = 0; ; next = (next + 1) % workers.length){
+                SocketChannel channel = server.accept();
+                workers[next].accepted.add(channel);
+                workers[next].selector.wakeup();
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException {         // usage: GameServer [port] [workers] [rows] [columns]
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        int workers = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        int rows = args.length > 2 ? Integer.parseInt(args[2]) : Engine.DEFAULT_ROWS;
+        int columns = args.length > 3 ? Integer.parseInt(args[3]) : Engine.DEFAULT_COLUMNS;
+        new GameServer(workers, rows, columns).serve(port);
+    }
+}
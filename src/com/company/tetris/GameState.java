@@ -0,0 +1,286 @@
+/*
+        Project title: Tetris
+        Author: Jakub Sobczyński
+        GitHub: https://github.com/J-Sob
+ */
+
+package com.company.tetris;
+
+import java.nio.ByteBuffer;
+
+public final class GameState {      // immutable snapshot of a game, cheap to take, restore and branch from in searches
+
+    static final int FIXED_SIZE = 111;      // bytes written by write() apart from rows, bag and queue
+    static final ThreadLocal<int[]> CLEARED_ROWS = ThreadLocal.withInitial(() -> new int[4]);         // scratch of apply(), states are shared between search threads
+
+    final long[] rows;       // bitset rows as in Engine.gameBoard, never modified once the snapshot exists
+    final int columns;
+    final int words;
+    final int stackTop;         // rows above this one are empty
+    final Engine.Shape shape;       // falling piece
+    final int rotation;
+    final int rowPos;
+    final int columnPos;
+    final long seed;        // piece generator
+    final long rngState;
+    final boolean sevenBag;
+    final byte[] bag;
+    final int bagPosition;
+    final byte[] queue;
+    final int score;
+    final boolean gameOver;
+    final int piecesPlaced;
+    final int linesCleared;
+    final int combo;
+    final boolean lastClearWasTetris;
+    final int gravityRows;
+    final int gravityTicks;
+    final int gravityCounter;
+    final int startLevel;
+    final int level;
+    final int lockDelay;
+    final int maxLockResets;
+    final int lockCounter;
+    final int lockResets;
+    final int lowestRow;
+    final long tickCount;
+
+    GameState(Engine engine){       // rows are shared with the engine, which copies them before its next change
+        this.rows = engine.gameBoard;
+        this.columns = engine.getBoardColumns();
+        this.words = engine.words;
+        this.stackTop = engine.stackTop;
+        this.shape = engine.tetro.getShape();
+        this.rotation = engine.tetro.getRotation();
+        this.rowPos = engine.tetro.getRowPos();
+        this.columnPos = engine.tetro.getColumnPos();
+        this.seed = engine.generator.seed;
+        this.rngState = engine.generator.state;
+        this.sevenBag = engine.generator.sevenBag;
+        this.bag = engine.generator.bag.clone();
+        this.bagPosition = engine.generator.bagPosition;
+        this.queue = engine.generator.copyQueue();
+        this.score = engine.score;
+        this.gameOver = engine.gameOver;
+        this.piecesPlaced = engine.piecesPlaced;
+        this.linesCleared = engine.linesCleared;
+        this.combo = engine.combo;
+        this.lastClearWasTetris = engine.lastClearWasTetris;
+        this.gravityRows = engine.gravityRows;
+        this.gravityTicks = engine.gravityTicks;
+        this.gravityCounter = engine.gravityCounter;
+        this.startLevel = engine.startLevel;
+        this.level = engine.level;
+        this.lockDelay = engine.lockDelay;
+        this.maxLockResets = engine.maxLockResets;
+        this.lockCounter = engine.lockCounter;
+        this.lockResets = engine.lockResets;
+        this.lowestRow = engine.lowestRow;
+        this.tickCount = engine.tickCount;
+    }
+
+    private GameState(GameState previous, long[] rows, int stackTop, PieceGenerator generator, Engine.Shape shape, int spawnColumn,
+                      int score, boolean gameOver, int lines, int combo, boolean lastClearWasTetris){         // state after a placement
+        this.rows = rows;
+        this.columns = previous.columns;
+        this.words = previous.words;
+        this.stackTop = stackTop;
+        this.shape = shape;
+        this.rotation = 0;
+        this.rowPos = 0;
+        this.columnPos = spawnColumn;
+        this.seed = generator.seed;
+        this.rngState = generator.state;
+        this.sevenBag = generator.sevenBag;
+        this.bag = generator.bag;
+        this.bagPosition = generator.bagPosition;
+        this.queue = generator.copyQueue();
+        this.score = score;
+        this.gameOver = gameOver;
+        this.piecesPlaced = previous.piecesPlaced + 1;
+        this.linesCleared = previous.linesCleared + lines;
+        this.combo = combo;
+        this.lastClearWasTetris = lastClearWasTetris;
+        this.startLevel = previous.startLevel;
+        if(startLevel > 0){
+            this.level = startLevel + linesCleared / Engine.LINES_PER_LEVEL;
+            this.gravityRows = Engine.LEVEL_GRAVITY[Math.min(level, Engine.MAX_LEVEL)];
+            this.gravityTicks = Engine.GRAVITY_UNIT;
+        }else{
+            this.level = previous.level;
+            this.gravityRows = previous.gravityRows;
+            this.gravityTicks = previous.gravityTicks;
+        }
+        this.gravityCounter = 0;
+        this.lockDelay = previous.lockDelay;
+        this.maxLockResets = previous.maxLockResets;
+        this.lockCounter = 0;
+        this.lockResets = 0;
+        this.lowestRow = 0;
+        this.tickCount = previous.tickCount;
+    }
+
+    GameState(ByteBuffer buffer){       // state stored by write()
+        this.columns = buffer.getInt();
+        this.words = Bitboard.words(columns);
+        int boardRows = buffer.getInt();
+        int firstRow = buffer.getInt();
+        this.stackTop = firstRow;
+        this.rows = new long[boardRows * words];
+        for(int i = firstRow * words; i < rows.length; i++){
+            rows[i] = buffer.getLong();
+        }
+        this.shape = PieceGenerator.SHAPES[buffer.get()];
+        this.rotation = buffer.get();
+        this.rowPos = buffer.getInt();
+        this.columnPos = buffer.getInt();
+        this.seed = buffer.getLong();
+        this.rngState = buffer.getLong();
+        this.sevenBag = buffer.get() != 0;
+        this.bag = new byte[buffer.get()];
+        buffer.get(bag);
+        this.bagPosition = buffer.getInt();
+        this.queue = new byte[buffer.get()];
+        buffer.get(queue);
+        this.score = buffer.getInt();
+        this.gameOver = buffer.get() != 0;
+        this.piecesPlaced = buffer.getInt();
+        this.linesCleared = buffer.getInt();
+        this.combo = buffer.getInt();
+        this.lastClearWasTetris = buffer.get() != 0;
+        this.gravityRows = buffer.getInt();
+        this.gravityTicks = buffer.getInt();
+        this.gravityCounter = buffer.getInt();
+        this.startLevel = buffer.getInt();
+        this.level = buffer.getInt();
+        this.lockDelay = buffer.getInt();
+        this.maxLockResets = buffer.getInt();
+        this.lockCounter = buffer.getInt();
+        this.lockResets = buffer.getInt();
+        this.lowestRow = buffer.getInt();
+        this.tickCount = buffer.getLong();
+    }
+
+    static int maxSize(int boardRows, int columns, int previewDepth){       // bytes write() may need for a game of this size
+        return FIXED_SIZE + boardRows * Bitboard.words(columns) * 8 + PieceGenerator.SHAPES.length + previewDepth;
+    }
+
+    void write(ByteBuffer buffer){      // compact binary form, empty rows above the stack are left out
+        int firstRow = 0;
+        while(firstRow < getBoardRows() && Bitboard.isEmpty(rows, words, firstRow)){
+            firstRow++;
+        }
+        buffer.putInt(columns);
+        buffer.putInt(getBoardRows());
+        buffer.putInt(firstRow);
+        for(int i = firstRow * words; i < rows.length; i++){
+            buffer.putLong(rows[i]);
+        }
+        buffer.put((byte) shape.ordinal());
+        buffer.put((byte) rotation);
+        buffer.putInt(rowPos);
+        buffer.putInt(columnPos);
+        buffer.putLong(seed);
+        buffer.putLong(rngState);
+        buffer.put((byte) (sevenBag ? 1 : 0));
+        buffer.put((byte) bag.length);
+        buffer.put(bag);
+        buffer.putInt(bagPosition);
+        buffer.put((byte) queue.length);
+        buffer.put(queue);
+        buffer.putInt(score);
+        buffer.put((byte) (gameOver ? 1 : 0));
+        buffer.putInt(piecesPlaced);
+        buffer.putInt(linesCleared);
+        buffer.putInt(combo);
+        buffer.put((byte) (lastClearWasTetris ? 1 : 0));
+        buffer.putInt(gravityRows);
+        buffer.putInt(gravityTicks);
+        buffer.putInt(gravityCounter);
+        buffer.putInt(startLevel);
+        buffer.putInt(level);
+        buffer.putInt(lockDelay);
+        buffer.putInt(maxLockResets);
+        buffer.putInt(lockCounter);
+        buffer.putInt(lockResets);
+        buffer.putInt(lowestRow);
+        buffer.putLong(tickCount);
+    }
+
+    public GameState apply(int rotation, int column){       // hard drops the falling piece with given rotation and column, scores it and spawns the next one
+        if(gameOver){
+            return this;
+        }
+        int orientation = RotationTable.orientation(shape, rotation);
+        if(!Bitboard.fits(rows, columns, orientation, rowPos, column)){
+            throw new IllegalArgumentException("Placement does not fit: rotation " + rotation + ", column " + column);
+        }
+        long[] next = rows.clone();
+        int row = Bitboard.dropRow(next, columns, orientation, rowPos, column);
+        Bitboard.place(next, columns, orientation, row, column);
+        int top = Math.min(stackTop, row + RotationTable.MIN_ROW[orientation]);
+        int lines = Bitboard.clearLines(next, columns, row + RotationTable.MIN_ROW[orientation], row + RotationTable.MAX_ROW[orientation], top, CLEARED_ROWS.get());      // only rows of the piece can fill up
+
+        int nextScore = score;
+        int nextCombo = -1;
+        boolean tetris = lastClearWasTetris;
+        if(lines > 0){
+            nextCombo = combo + 1;
+            nextScore += Engine.points(lines, lines == 4 && lastClearWasTetris, nextCombo);
+            tetris = lines == 4;
+        }
+        PieceGenerator generator = new PieceGenerator(this);
+        Engine.Shape spawned = generator.next();
+        int spawnColumn = columns / 2 - 2;
+        boolean over = !Bitboard.fits(next, columns, RotationTable.orientation(spawned, 0), 0, spawnColumn);
+        return new GameState(this, next, top + lines, generator, spawned, spawnColumn, nextScore, over, lines, nextCombo, tetris);
+    }
+
+    public boolean getTileStatus(int i, int j){
+        return (rows[i * words + (j >>> 6)] >>> j & 1) != 0;
+    }
+
+    public int getBoardRows(){
+        return rows.length / words;
+    }
+
+    public int getBoardColumns(){
+        return columns;
+    }
+
+    public Engine.Shape getShape() {
+        return shape;
+    }
+
+    public int getRotation() {
+        return rotation;
+    }
+
+    public int getRowPos() {
+        return rowPos;
+    }
+
+    public int getColumnPos() {
+        return columnPos;
+    }
+
+    public Engine.Shape getUpcomingShape(int index){
+        return PieceGenerator.SHAPES[queue[index]];
+    }
+
+    public int getScore() {
+        return score;
+    }
+
+    public boolean isGameOver() {
+        return gameOver;
+    }
+
+    public int getPiecesPlaced() {
+        return piecesPlaced;
+    }
+
+    public int getLinesCleared() {
+        return linesCleared;
+    }
+}
@@ -0,0 +1,85 @@
+/*
+        Project title: Tetris
+        Author: Jakub Sobczyński
+        GitHub: https://github.com/J-Sob
+ */
+
+package com.company.tetris;
+
+import java.util.Arrays;
+
+final class LatencyHistogram {      // distribution of values with about 1% precision over any range, recording allocates nothing
+
+    /*
+        Same layout as HdrHistogram: buckets cover powers of two and each of them is split into SUB_BUCKETS linear steps,
+        so a value is counted within 1/SUB_BUCKETS of itself. Bucket 0 covers 0 to 2 * SUB_BUCKETS - 1 one by one,
+        every later bucket holds only its upper half because the lower half is covered by the buckets before it.
+        Written by one thread, other threads may read while it records and see a slightly stale picture.
+     */
+    static final int SUB_BUCKET_BITS = 7;
+    static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    static final int MAX_BUCKET = 40;       // values up to 2^48, over three days in nanoseconds
+
+    final long[] counts = new long[(MAX_BUCKET + 2) * SUB_BUCKETS];
+    long count;
+    long total;
+    long max;
+
+    static int index(long value){
+        int bucket = 63 - SUB_BUCKET_BITS - Long.numberOfLeadingZeros(value | (2 * SUB_BUCKETS - 1));
+        if(bucket > MAX_BUCKET){
+            return (MAX_BUCKET + 2) * SUB_BUCKETS - 1;
+        }
+        int subBucket = (int) (value >>> bucket);       // between SUB_BUCKETS and 2 * SUB_BUCKETS - 1, or below in bucket 0
+        return (bucket << SUB_BUCKET_BITS) + subBucket;
+    }
+
+    static long highestValue(int index){        // largest value counted at given index
+        int bucket = Math.max(0, (index >> SUB_BUCKET_BITS) - 1);
+        long subBucket = index - ((long) bucket << SUB_BUCKET_BITS);
+        return ((subBucket + 1) << bucket) - 1;
+    }
+
+    void record(long value){
+        if(value < 0){
+            value = 0;
+        }
+        counts[index(value)]++;
+        count++;
+        total += value;
+        if(value > max){
+            max = value;
+        }
+    }
+
+    long valueAtPercentile(double percentile){      // smallest value that given percent of recorded values do not exceed
+        long target = Math.max(1, (long) Math.ceil(count * percentile / 100));
+        long seen = 0;
+        for(int i = 0; i < counts.length; i++){
+            seen += counts[i];
+            if(seen >= target){
+                return Math.min(max, highestValue(i));
+            }
+        }
+        return max;
+    }
+
+    double getMean(){
+        return count == 0 ? 0 : (double) total / count;
+    }
+
+    long getCount(){
+        return count;
+    }
+
+    long getMax(){
+        return max;
+    }
+
+    void reset(){
+        Arrays.fill(counts, 0);
+        count = 0;
+        total = 0;
+        max = 0;
+    }
+}
@@ -0,0 +1,232 @@
+/*
+        Project title: Tetris
+        Author: Jakub Sobczyński
+        GitHub: https://github.com/J-Sob
+ */
+
+package com.company.tetris;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+public class LoadGenerator {        // opens many bot sessions on a GameServer and measures what their players would see
+
+    static final int MAX_SAMPLES = 1 << 20;
+
+    class Bot extends TimerWheel.Timer {        // plays random inputs at a fixed rate, all bots share one thread
+        final SocketChannel channel;
+        final SelectionKey key;
+        final ByteBuffer input = ByteBuffer.allocate(Protocol.MAX_MESSAGE_SIZE + 2);
+        final ByteBuffer output = ByteBuffer.allocate(256);         // kept in write mode
+        final SplittableRandom random;
+        int sequence;
+        int measuredSequence;       // input whose round trip is being timed, one at a time
+        long measuredSentAt;        // 0 when nothing is being timed
+        long minOffset = Long.MAX_VALUE;        // smallest arrival time minus tick time seen, later ticks arriving later than this are jitter
+        boolean closed;
+
+        Bot(SocketChannel channel, long seed) throws IOException {
+            this.channel = channel;
+            this.key = channel.register(selector, SelectionKey.OP_READ, this);
+            this.random = new SplittableRandom(seed);
+            Protocol.putConnect(output, random.nextLong());
+            flush();
+        }
+
+        @Override
+        void expire(long now) {
+            Engine.Input action = Engine.Input.values()[random.nextInt(Engine.Input.values().length)];
+            Protocol.putInput(output, action, ++sequence);
+            if(measuredSentAt == 0){
+                measuredSequence = sequence;
+                measuredSentAt = now;
+            }
+            inputs++;
+            flush();
+            wheel.schedule(this, now + inputIntervalNanos / 2 + random.nextLong(inputIntervalNanos));      // spread around the mean rate so bots do not move in lockstep
+        }
+
+        void read(long now) throws IOException {
+            if(channel.read(input) < 0){
+                throw new IOException("Server closed session");
+            }
+            input.flip();
+            int length;
+            while((length = Protocol.messageLength(input)) >= 0){
+                int end = input.position() + 2 + length;
+                input.getShort();
+                byte type = input.get();
+                messages++;
+                bytes += 2 + length;
+                if(type == Protocol.WELCOME){
+                    tickNanos = TimeUnit.SECONDS.toNanos(1) / input.getInt(input.position() + 12);
+                    wheel.schedule(this, now + inputIntervalNanos);
+                }else if(type == Protocol.STATE){
+                    long tick = input.getLong();
+                    int acknowledged = input.getInt();
+                    if(measuredSentAt != 0 && acknowledged - measuredSequence >= 0){
+                        record(latencies, latencyCount++, now - measuredSentAt);
+                        measuredSentAt = 0;
+                    }
+                    long offset = now - tick * tickNanos;
+                    minOffset = Math.min(minOffset, offset);
+                    record(jitters, jitterCount++, offset - minOffset);
+                }else if(type == Protocol.GAME_OVER){
+                    games++;
+                    measuredSentAt = 0;
+                    minOffset = Long.MAX_VALUE;         // ticks start from 0 again
+                    Protocol.putConnect(output, random.nextLong());
+                    flush();
+                }
+                input.position(end);
+            }
+            input.compact();
+        }
+
+        void flush(){
+            try {
+                output.flip();
+                channel.write(output);
+                output.compact();
+                key.interestOps(output.position() > 0 ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        void close(){
+            if(closed){
+                return;
+            }
+            closed = true;
+            wheel.cancel(this);
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            bots--;
+        }
+    }
+
+    final Selector selector;
+    final TimerWheel wheel;
+    final long inputIntervalNanos;
+    long tickNanos = GameLoop.TICK_NANOS;
+    int bots;
+    long inputs;
+    long messages;
+    long bytes;
+    long games;
+    final long[] latencies = new long[MAX_SAMPLES];         // input sent until a state acknowledging it arrived
+    int latencyCount;
+    final long[] jitters = new long[MAX_SAMPLES];       // state arriving later than its tick should have
+    int jitterCount;
+
+    LoadGenerator(double inputsPerSecond) throws IOException {
+        this.selector = Selector.open();
+        this.wheel = new TimerWheel(TimeUnit.MILLISECONDS.toNanos(1), 10, System.nanoTime());
+        this.inputIntervalNanos = (long) (1e9 / inputsPerSecond);
+    }
+
+    static void record(long[] samples, int index, long value){      // later samples replace random earlier ones once the array is full
+        if(index < samples.length){
+            samples[index] = value;
+        }else{
+            int slot = (int) ((Zobrist.mix(index) & Long.MAX_VALUE) % (index + 1L));
+            if(slot < samples.length){
+                samples[slot] = value;
+            }
+        }
+    }
+
+    void open(InetSocketAddress address, int sessions, long seed) throws IOException {
+        for(int i = 0; i < sessions; i++){
+            SocketChannel channel = SocketChannel.open(address);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            channel.configureBlocking(false);
+            new Bot(channel, seed + i);
+            bots++;
+        }
+    }
+
+    void run(long durationNanos) throws IOException {
+        long start = System.nanoTime();
+        long end = start + durationNanos;
+        long reportTime = start + TimeUnit.SECONDS.toNanos(5);
+        long reportMessages = 0;
+        while(true){
+            long now = System.nanoTime();
+            if(now >= end){
+                break;
+            }
+            long wait = wheel.nextSlotNanos() - now;
+            if(wait > 0){
+                selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(wait)));
+            }else{
+                selector.selectNow();
+            }
+            now = System.nanoTime();
+            for(SelectionKey key : selector.selectedKeys()){
+                Bot bot = (Bot) key.attachment();
+                try {
+                    if(key.isValid() && key.isReadable()){
+                        bot.read(now);
+                    }
+                    if(key.isValid() && key.isWritable()){
+                        bot.flush();
+                    }
+                } catch (IOException e) {
+                    bot.close();
+                }
+            }
+            selector.selectedKeys().clear();
+            wheel.advance(now);
+            if(now >= reportTime){
+                System.out.printf("%d bots, %.0f messages/s%n", bots, (messages - reportMessages) / 5.0);
+                reportMessages = messages;
+                reportTime += TimeUnit.SECONDS.toNanos(5);
+            }
+        }
+        printReport(System.nanoTime() - start);
+    }
+
+    void printReport(long elapsedNanos){
+        double seconds = elapsedNanos / 1e9;
+        System.out.printf("Bots: %d, time: %.1f s, games finished: %d%n", bots, seconds, games);
+        System.out.printf("Inputs: %.0f/s, messages: %.0f/s, received: %.1f KB/s%n", inputs / seconds, messages / seconds, bytes / seconds / 1024);
+        printPercentiles("Input latency", latencies, Math.min(latencyCount, MAX_SAMPLES));
+        printPercentiles("Tick jitter", jitters, Math.min(jitterCount, MAX_SAMPLES));
+    }
+
+    static void printPercentiles(String name, long[] samples, int count){
+        if(count == 0){
+            System.out.printf("%s: no samples%n", name);
+            return;
+        }
+        Arrays.sort(samples, 0, count);
+        System.out.printf("%s: p50 %.2f ms, p90 %.2f ms, p99 %.2f ms, max %.2f ms%n", name,
+                samples[count / 2] / 1e6, samples[(int) (count * 0.9)] / 1e6, samples[(int) (count * 0.99)] / 1e6, samples[count - 1] / 1e6);
+    }
+
+    public static void main(String[] args) throws IOException {         // usage: LoadGenerator [sessions] [seconds] [inputs per second per session] [host] [port]
+        int sessions = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 30;
+        double inputsPerSecond = args.length > 2 ? Double.parseDouble(args[2]) : 5;
+        String host = args.length > 3 ? args[3] : "localhost";
+        int port = args.length > 4 ? Integer.parseInt(args[4]) : GameServer.DEFAULT_PORT;
+
+        LoadGenerator generator = new LoadGenerator(inputsPerSecond);
+        generator.open(new InetSocketAddress(host, port), sessions, System.nanoTime());
+        generator.run(TimeUnit.SECONDS.toNanos(seconds));
+    }
+}
@@ -0,0 +1,225 @@
+/*
+        Project title: Tetris
+        Author: Jakub Sobczyński
+        GitHub: https://github.com/J-Sob
+ */
+
+package com.company.tetris;
+
+import com.sun.management.ThreadMXBean;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+public class Metrics implements MetricsMBean {      // timings of the game loop and the engine, recorded on the thread that runs them
+
+    /*
+        Code being measured asks for start() and passes it back to record(), while metrics are disabled start() is 0
+        and nothing else happens, so instrumented code pays one field read. Nothing allocates while recording.
+        Engines without metrics have a null field and are not measured at all, which keeps simulations and servers out of it.
+     */
+    static final String OBJECT_NAME = "com.company.tetris:type=Metrics";
+    static final int MAX_PENDING_INPUTS = 64;
+
+    final LatencyHistogram tick = new LatencyHistogram();       // Engine.tick()
+    final LatencyHistogram lineCheck = new LatencyHistogram();      // Engine.checkBoard() after a piece locks
+    final LatencyHistogram render = new LatencyHistogram();         // drawing a frame
+    final LatencyHistogram frame = new LatencyHistogram();      // whole AnimationTimer callback
+    final LatencyHistogram inputToMove = new LatencyHistogram();        // key event until the tick that applies it
+    final LatencyHistogram inputToScreen = new LatencyHistogram();      // key event until the end of the first frame after the tick that applied it
+    final LatencyHistogram allocation = new LatencyHistogram();         // bytes allocated by the FX thread per frame
+    final long[] pendingInputs = new long[MAX_PENDING_INPUTS];      // times of inputs applied but not shown yet
+    int pendingCount;
+    final ThreadMXBean threads;      // null when the JVM cannot count allocated bytes
+    volatile boolean enabled;
+
+    public Metrics(boolean enabled) {
+        this.enabled = enabled;
+        if(ManagementFactory.getThreadMXBean() instanceof ThreadMXBean && ((ThreadMXBean) ManagementFactory.getThreadMXBean()).isThreadAllocatedMemorySupported()){
+            threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+            threads.setThreadAllocatedMemoryEnabled(true);
+        }else{
+            threads = null;
+        }
+    }
+
+    void register(){        // visible in JConsole and other JMX clients under OBJECT_NAME
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+        } catch (JMException e) {
+            e.printStackTrace();
+        }
+    }
+
+    long start(){
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    void record(LatencyHistogram histogram, long start){
+        if(start != 0){
+            histogram.record(System.nanoTime() - start);
+        }
+    }
+
+    long allocatedBytes(){      // -1 while disabled
+        return enabled && threads != null ? threads.getCurrentThreadAllocatedBytes() : -1;
+    }
+
+    void recordAllocation(long start){
+        if(start >= 0 && threads != null){
+            allocation.record(threads.getCurrentThreadAllocatedBytes() - start);
+        }
+    }
+
+    void inputApplied(long time){       // inputs beyond MAX_PENDING_INPUTS in one frame are not shown on screen for the histogram
+        if(!enabled){
+            return;
+        }
+        inputToMove.record(System.nanoTime() - time);
+        if(pendingCount < MAX_PENDING_INPUTS){
+            pendingInputs[pendingCount++] = time;
+        }
+    }
+
+    void frameShown(long now){
+        for(int i = 0; i < pendingCount; i++){
+            inputToScreen.record(now - pendingInputs[i]);
+        }
+        pendingCount = 0;
+    }
+
+    static double micros(LatencyHistogram histogram, double percentile){
+        return histogram.valueAtPercentile(percentile) / 1e3;
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    @Override
+    public long getFrames() {
+        return frame.getCount();
+    }
+
+    @Override
+    public double getTickP50() {
+        return micros(tick, 50);
+    }
+
+    @Override
+    public double getTickP99() {
+        return micros(tick, 99);
+    }
+
+    @Override
+    public double getTickMax() {
+        return tick.getMax() / 1e3;
+    }
+
+    @Override
+    public double getLineCheckP50() {
+        return micros(lineCheck, 50);
+    }
+
+    @Override
+    public double getLineCheckP99() {
+        return micros(lineCheck, 99);
+    }
+
+    @Override
+    public double getLineCheckMax() {
+        return lineCheck.getMax() / 1e3;
+    }
+
+    @Override
+    public double getRenderP50() {
+        return micros(render, 50);
+    }
+
+    @Override
+    public double getRenderP99() {
+        return micros(render, 99);
+    }
+
+    @Override
+    public double getRenderMax() {
+        return render.getMax() / 1e3;
+    }
+
+    @Override
+    public double getFrameP50() {
+        return micros(frame, 50);
+    }
+
+    @Override
+    public double getFrameP99() {
+        return micros(frame, 99);
+    }
+
+    @Override
+    public double getFrameMax() {
+        return frame.getMax() / 1e3;
+    }
+
+    @Override
+    public double getInputToMoveP50() {
+        return micros(inputToMove, 50);
+    }
+
+    @Override
+    public double getInputToMoveP99() {
+        return micros(inputToMove, 99);
+    }
+
+    @Override
+    public double getInputToScreenP50() {
+        return micros(inputToScreen, 50);
+    }
+
+    @Override
+    public double getInputToScreenP99() {
+        return micros(inputToScreen, 99);
+    }
+
+    @Override
+    public double getInputToScreenMax() {
+        return inputToScreen.getMax() / 1e3;
+    }
+
+    @Override
+    public long getAllocatedBytesPerFrameP50() {
+        return allocation.valueAtPercentile(50);
+    }
+
+    @Override
+    public long getAllocatedBytesPerFrameP99() {
+        return allocation.valueAtPercentile(99);
+    }
+
+    @Override
+    public String getSummary() {        // also the text of the debug overlay
+        return String.format("tick    p50 %7.1f  p99 %7.1f us%nlines   p50 %7.1f  p99 %7.1f us%nrender  p50 %7.1f  p99 %7.1f us%n"
+                        + "frame   p50 %7.1f  p99 %7.1f us%nmove    p50 %7.1f  p99 %7.1f ms%nscreen  p50 %7.1f  p99 %7.1f ms%nalloc   p50 %7d  p99 %7d B/frame",
+                getTickP50(), getTickP99(), getLineCheckP50(), getLineCheckP99(), getRenderP50(), getRenderP99(),
+                getFrameP50(), getFrameP99(), getInputToMoveP50() / 1e3, getInputToMoveP99() / 1e3, getInputToScreenP50() / 1e3, getInputToScreenP99() / 1e3,
+                getAllocatedBytesPerFrameP50(), getAllocatedBytesPerFrameP99());
+    }
+
+    @Override
+    public void reset() {       // from another thread this may lose the few values recorded at the same time
+        tick.reset();
+        lineCheck.reset();
+        render.reset();
+        frame.reset();
+        inputToMove.reset();
+        inputToScreen.reset();
+        allocation.reset();
+    }
+}
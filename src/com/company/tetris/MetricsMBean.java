@@ -0,0 +1,58 @@
+/*
+        Project title: Tetris
+        Author: Jakub Sobczyński
+        GitHub: https://github.com/J-Sob
+ */
+
+package com.company.tetris;
+
+public interface MetricsMBean {         // JMX view of Metrics, times in microseconds
+
+    boolean isEnabled();
+
+    void setEnabled(boolean enabled);
+
+    long getFrames();
+
+    double getTickP50();
+
+    double getTickP99();
+
+    double getTickMax();
+
+    double getLineCheckP50();
+
+    double getLineCheckP99();
+
+    double getLineCheckMax();
+
+    double getRenderP50();
+
+    double getRenderP99();
+
+    double getRenderMax();
+
+    double getFrameP50();
+
+    double getFrameP99();
+
+    double getFrameMax();
+
+    double getInputToMoveP50();
+
+    double getInputToMoveP99();
+
+    double getInputToScreenP50();
+
+    double getInputToScreenP99();
+
+    double getInputToScreenMax();
+
+    long getAllocatedBytesPerFrameP50();
+
+    long getAllocatedBytesPerFrameP99();
+
+    String getSummary();
+
+    void reset();
+}
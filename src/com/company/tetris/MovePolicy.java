@@ -0,0 +1,46 @@
+/*
+        Project title: Tetris
+        Author: Jakub Sobczyński
+        GitHub: https://github.com/J-Sob
+ */
+
+package com.company.tetris;
+
+import java.util.SplittableRandom;
+
+public interface MovePolicy {       // decides how a freshly spawned piece is moved before it gets dropped
+
+    void placePiece(Engine engine);     // called once per piece, may rotate and move engine.tetro but should not lower it
+
+    static MovePolicy create(String name, long seed){       // policies available from the command line, every game gets its own instance
+        return switch (name) {
+            case "random" -> new RandomPolicy(seed);
+            case "drop" -> engine -> {};
+            case "agent" -> new PlacementAgent();
+            case "agent-lookahead" -> new PlacementAgent(1, false);
+            case "agent-parallel" -> new PlacementAgent(1, true);
+            default -> throw new IllegalArgumentException("Unknown policy: " + name);
+        };
+    }
+
+    class RandomPolicy implements MovePolicy {     // rotates and shifts each piece by a random amount
+        final SplittableRandom random;
+
+        RandomPolicy(long seed){
+            this.random = new SplittableRandom(seed);
+        }
+
+        @Override
+        public void placePiece(Engine engine) {
+            int rotations = random.nextInt(4);
+            for(int i = 0; i < rotations; i++){
+                engine.rotateTetromino();
+            }
+            int shift = random.nextInt(engine.getBoardColumns()) - engine.getBoardColumns() / 2;
+            Engine.Direction direction = shift < 0 ? Engine.Direction.LEFT : Engine.Direction.RIGHT;
+            for(int i = 0; i < Math.abs(shift); i++){
+                engine.moveTetromino(direction);
+            }
+        }
+    }
+}
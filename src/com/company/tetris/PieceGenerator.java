@@ -0,0 +1,112 @@
+/*
+        Project title: Tetris
+        Author: Jakub Sobczyński
+        GitHub: https://github.com/J-Sob
+ */
+
+package com.company.tetris;
+
+final class PieceGenerator {        // seeded source of upcoming shapes, kept in a ring buffer so spawning a piece allocates nothing
+
+    static final Engine.Shape[] SHAPES = Engine.Shape.values();
+
+    long seed;
+    long state;         // SplitMix64 state, a single long so the sequence is cheap to save and restore
+    final boolean sevenBag;         // every 7 pieces contain each shape exactly once
+    final byte[] bag = new byte[SHAPES.length];
+    int bagPosition;
+    final byte[] queue;         // preview ring buffer of shape ordinals
+    int head;
+
+    PieceGenerator(long seed, boolean sevenBag, int previewDepth){
+        if(previewDepth < 1){
+            throw new IllegalArgumentException("Preview depth must be at least 1");
+        }
+        this.sevenBag = sevenBag;
+        this.queue = new byte[previewDepth];
+        reset(seed);
+    }
+
+    PieceGenerator(GameState state){        // generator continuing from a snapshot
+        this.sevenBag = state.sevenBag;
+        this.queue = new byte[state.queue.length];
+        restore(state);
+    }
+
+    void restore(GameState state){
+        if(state.sevenBag != sevenBag || state.queue.length != queue.length){
+            throw new IllegalArgumentException("Snapshot has different randomizer settings");
+        }
+        this.seed = state.seed;
+        this.state = state.rngState;
+        System.arraycopy(state.bag, 0, bag, 0, bag.length);
+        this.bagPosition = state.bagPosition;
+        System.arraycopy(state.queue, 0, queue, 0, queue.length);
+        this.head = 0;
+    }
+
+    byte[] copyQueue(){         // preview in order, first element spawns next
+        byte[] copy = new byte[queue.length];
+        for(int i = 0; i < queue.length; i++){
+            copy[i] = (byte) peek(i).ordinal();
+        }
+        return copy;
+    }
+
+    void reset(long seed){      // starting a new sequence, same seed always gives the same pieces
+        this.seed = seed;
+        this.state = seed;
+        this.bagPosition = bag.length;
+        this.head = 0;
+        for(int i = 0; i < queue.length; i++){
+            queue[i] = generate();
+        }
+    }
+
+    Engine.Shape next(){        // taking the first shape from the queue and generating a new one at its end
+        byte shape = queue[head];
+        queue[head] = generate();
+        head = head + 1 == queue.length ? 0 : head + 1;
+        return SHAPES[shape];
+    }
+
+    Engine.Shape peek(int index){       // shape that will spawn after index other pieces
+        int position = head + index;
+        if(position >= queue.length) position -= queue.length;
+        return SHAPES[queue[position]];
+    }
+
+    int getPreviewDepth(){
+        return queue.length;
+    }
+
+    long nextLong(){
+        long z = (state += 0x9E3779B97F4A7C15L);
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    int nextInt(int bound){
+        return (int) (((nextLong() >>> 33) * bound) >>> 31);
+    }
+
+    private byte generate(){
+        if(!sevenBag){
+            return (byte) nextInt(SHAPES.length);
+        }
+        if(bagPosition == bag.length){      // refilling and shuffling the bag
+            for(int i = 0; i < bag.length; i++){
+                bag[i] = (byte) i;
+            }
+            for(int i = bag.length - 1; i > 0; i--){
+                int j = nextInt(i + 1);
+                byte temp = bag[i];
+                bag[i] = bag[j];
+                bag[j] = temp;
+            }
+            bagPosition = 0;
+        }
+        return bag[bagPosition++];
+    }
+}
@@ -0,0 +1,196 @@
+/*
+        Project title: Tetris
+        Author: Jakub Sobczyński
+        GitHub: https://github.com/J-Sob
+ */
+
+package com.company.tetris;
+
+import javafx.geometry.Rectangle2D;
+import javafx.scene.image.PixelBuffer;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+import javafx.scene.paint.Color;
+import javafx.util.Callback;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+final class PixelRenderer {         // draws the board into an image straight from the row masks, every tile is copied from a pre-rendered sprite
+
+    /*
+        The image shows visibleRows rows from viewTop, one tile is tile x tile pixels. A frame first puts stack tiles back
+        where the piece and the ghost were, repaints rows the engine marked dirty, then draws the ghost and the piece on top.
+        Only the band of pixel rows touched by that is handed to JavaFX for upload.
+     */
+    static final int EMPTY = 0;         // sprites
+    static final int STACK = 1;
+    static final int PIECE = 2;
+    static final int GHOST = 3;
+
+    final int columns;
+    final int visibleRows;
+    final int tile;
+    final int width;
+    final int height;
+    final IntBuffer buffer;         // premultiplied ARGB shared with the image
+    final int[][] sprites = new int[4][];
+    PixelBuffer<IntBuffer> pixelBuffer;
+    final Callback<PixelBuffer<IntBuffer>, Rectangle2D> update = pixels -> dirtyRegion();
+    Engine engine;      // arguments of the frame being rendered
+    int viewTop;
+    double pieceRow;
+    int dirtyTop;       // pixel rows changed by the last paint(), empty when dirtyTop >= dirtyBottom
+    int dirtyBottom;
+    int pieceY;         // piece and ghost as they were drawn, orientation -1 when not drawn
+    int pieceColumn;
+    int pieceOrientation = -1;
+    int ghostRow;
+    int ghostColumn;
+    int ghostOrientation = -1;
+
+    PixelRenderer(int columns, int visibleRows, int tile, boolean grid, Color background, Color stack, Color piece, Color ghost){
+        this.columns = columns;
+        this.visibleRows = visibleRows;
+        this.tile = tile;
+        this.width = columns * tile;
+        this.height = visibleRows * tile;
+        this.buffer = ByteBuffer.allocateDirect(width * height * 4).order(ByteOrder.nativeOrder()).asIntBuffer();
+        sprites[EMPTY] = sprite(tile, background, grid);
+        sprites[STACK] = sprite(tile, stack, grid);
+        sprites[PIECE] = sprite(tile, piece, grid);
+        sprites[GHOST] = sprite(tile, blend(ghost, background), grid);
+    }
+
+    static int argb(Color color){       // opaque colors only, so premultiplying changes nothing
+        return 0xFF000000 | (int) Math.round(color.getRed() * 255) << 16 | (int) Math.round(color.getGreen() * 255) << 8 | (int) Math.round(color.getBlue() * 255);
+    }
+
+    static Color blend(Color over, Color under){        // translucent color as it looks on an opaque one
+        double a = over.getOpacity();
+        return Color.color(over.getRed() * a + under.getRed() * (1 - a), over.getGreen() * a + under.getGreen() * (1 - a), over.getBlue() * a + under.getBlue() * (1 - a));
+    }
+
+    static int[] sprite(int tile, Color fill, boolean grid){         // tile pixels row by row, grid lines on the top and left edge, shared with Wall
+        int color = argb(fill);
+        int[] sprite = new int[tile * tile];
+        for(int y = 0; y < tile; y++){
+            for(int x = 0; x < tile; x++){
+                sprite[y * tile + x] = grid && (x == 0 || y == 0) ? 0xFF000000 : color;
+            }
+        }
+        return sprite;
+    }
+
+    WritableImage createImage(){        // needs the JavaFX toolkit, the image shows the buffer without copying it
+        pixelBuffer = new PixelBuffer<>(width, height, buffer, PixelFormat.getIntArgbPreInstance());
+        return new WritableImage(pixelBuffer);
+    }
+
+    void render(Engine engine, int viewTop, double pieceRow){       // on the JavaFX thread, pieceRow may be between rows while the piece falls
+        this.engine = engine;
+        this.viewTop = viewTop;
+        this.pieceRow = pieceRow;
+        pixelBuffer.updateBuffer(update);
+        this.engine = null;
+    }
+
+    Rectangle2D dirtyRegion(){
+        paint(engine, viewTop, pieceRow);
+        return dirtyTop < dirtyBottom ? new Rectangle2D(0, dirtyTop, width, dirtyBottom - dirtyTop) : Rectangle2D.EMPTY;
+    }
+
+    void paint(Engine engine, int viewTop, double pieceRow){
+        dirtyTop = height;
+        dirtyBottom = 0;
+        if(pieceOrientation >= 0){
+            restore(engine, viewTop, pieceOrientation, pieceY, pieceColumn);
+        }
+        if(ghostOrientation >= 0){
+            restore(engine, viewTop, ghostOrientation, (ghostRow - viewTop) * tile, ghostColumn);
+        }
+        int lastRow = viewTop + visibleRows - 1;
+        for(int i = engine.nextDirtyRow(viewTop); i >= 0 && i <= lastRow; i = engine.nextDirtyRow(i + 1)){
+            paintRow(engine, viewTop, i);
+        }
+        int orientation = engine.tetro.orientation;
+        int column = engine.tetro.getColumnPos();
+        if(engine.isGameOver()){
+            ghostOrientation = -1;
+        }else{
+            ghostOrientation = orientation;
+            ghostRow = engine.landingRow();
+            ghostColumn = column;
+            drawPiece(GHOST, orientation, (ghostRow - viewTop) * tile, column);
+        }
+        pieceOrientation = orientation;
+        pieceY = (int) Math.round((pieceRow - viewTop) * tile);
+        pieceColumn = column;
+        drawPiece(PIECE, orientation, pieceY, column);
+    }
+
+    void paintRow(Engine engine, int viewTop, int row){         // empty tiles, then the filled ones found a word at a time
+        int y = (row - viewTop) * tile;
+        for(int j = 0; j < columns; j++){
+            blit(EMPTY, j * tile, y);
+        }
+        int base = row * engine.words;
+        for(int w = 0; w < engine.words; w++){
+            long cells = engine.gameBoard[base + w];
+            while(cells != 0){
+                blit(STACK, (w * 64 + Long.numberOfTrailingZeros(cells)) * tile, y);
+                cells &= cells - 1;
+            }
+        }
+    }
+
+    void restore(Engine engine, int viewTop, int orientation, int y, int column){       // stack tiles under every cell of a piece drawn at pixel row y
+        for(int i = RotationTable.MIN_ROW[orientation]; i <= RotationTable.MAX_ROW[orientation]; i++){
+            int cellY = y + i * tile;
+            int first = Math.floorDiv(cellY, tile);
+            int last = Math.floorDiv(cellY + tile - 1, tile);
+            int cells = RotationTable.rowMask(orientation, i);
+            while(cells != 0){
+                int j = column + Integer.numberOfTrailingZeros(cells);
+                cells &= cells - 1;
+                for(int r = first; r <= last; r++){
+                    if(r >= 0 && r < visibleRows && j >= 0 && j < columns){
+                        blit(filled(engine, viewTop + r, j) ? STACK : EMPTY, j * tile, r * tile);
+                    }
+                }
+            }
+        }
+    }
+
+    static boolean filled(Engine engine, int row, int column){
+        return (engine.gameBoard[row * engine.words + (column >>> 6)] & 1L << column) != 0;
+    }
+
+    void drawPiece(int sprite, int orientation, int y, int column){
+        for(int i = RotationTable.MIN_ROW[orientation]; i <= RotationTable.MAX_ROW[orientation]; i++){
+            int cells = RotationTable.rowMask(orientation, i);
+            while(cells != 0){
+                int j = column + Integer.numberOfTrailingZeros(cells);
+                cells &= cells - 1;
+                if(j >= 0 && j < columns){
+                    blit(sprite, j * tile, y + i * tile);
+                }
+            }
+        }
+    }
+
+    void blit(int sprite, int x, int y){        // one tile at pixel position, clipped at the top and bottom of the image
+        int from = Math.max(0, y);
+        int to = Math.min(height, y + tile);
+        if(from >= to){
+            return;
+        }
+        int[] pixels = sprites[sprite];
+        for(int py = from; py < to; py++){
+            buffer.put(py * width + x, pixels, (py - y) * tile, tile);
+        }
+        dirtyTop = Math.min(dirtyTop, from);
+        dirtyBottom = Math.max(dirtyBottom, to);
+    }
+}
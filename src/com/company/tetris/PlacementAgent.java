@@ -0,0 +1,232 @@
+/*
+        Project title: Tetris
+        Author: Jakub Sobczyński
+        GitHub: https://github.com/J-Sob
+ */
+
+package com.company.tetris;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+public class PlacementAgent implements Agent {      // tries every rotation and column of the piece on copies of the board and keeps the best one
+
+    // weights of board features, tuned for the classic 10x20 board
+    static final double HEIGHT_WEIGHT = -0.510066;
+    static final double LINES_WEIGHT = 0.760666;
+    static final double HOLES_WEIGHT = -0.35663;
+    static final double BUMPINESS_WEIGHT = -0.184483;
+    static final int TABLE_SIZE_LOG2 = 16;
+
+    final int lookahead;        // number of preview pieces searched after the current one
+    final boolean parallel;         // evaluating first level placements on the fork-join pool
+    final TranspositionTable table = new TranspositionTable(TABLE_SIZE_LOG2);        // values of boards already searched, shared by all threads
+    long evaluations;
+
+    public PlacementAgent(){
+        this(0, false);
+    }
+
+    public PlacementAgent(int lookahead, boolean parallel){
+        this.lookahead = lookahead;
+        this.parallel = parallel;
+    }
+
+    static class Search {       // scratch boards for one thread, one per depth so nothing is allocated while searching
+        final long[][] boards;
+        final int[][] candidates;
+        final int[][] tops;         // column tops of the board each depth starts from, so pieces drop in a few steps
+        final int[] heights;
+        final int[] clearedRows = new int[4];
+        final int rows;
+        final int columns;
+        final Zobrist zobrist;
+        final TranspositionTable table;
+        final long[] sequenceKeys;      // key of the shapes still to be placed after each depth, so cached values depend on them too
+        long evaluations;
+
+        Search(int rows, int columns, Zobrist zobrist, TranspositionTable table, long[] sequenceKeys){
+            int depth = sequenceKeys.length - 1;
+            this.boards = new long[depth + 1][rows * Bitboard.words(columns)];
+            this.candidates = new int[depth + 1][maxPlacements(columns)];
+            this.tops = new int[depth + 1][columns];
+            this.heights = new int[columns];
+            this.rows = rows;
+            this.columns = columns;
+            this.zobrist = zobrist;
+            this.table = table;
+            this.sequenceKeys = sequenceKeys;
+        }
+    }
+
+    @Override
+    public Placement choose(Engine engine) {
+        int rows = engine.getBoardRows();
+        int columns = engine.getBoardColumns();
+        int depth = Math.min(lookahead, engine.getPreviewDepth());
+        Engine.Shape[] shapes = new Engine.Shape[depth + 1];
+        shapes[0] = engine.tetro.getShape();
+        for(int i = 1; i <= depth; i++){
+            shapes[i] = engine.getUpcomingShape(i - 1);
+        }
+        int spawnColumn = engine.tetro.getColumnPos();
+        int spawnRow = engine.tetro.getRowPos();
+        long[] sequenceKeys = new long[depth + 1];
+        for(int d = 1; d <= depth; d++){
+            for(int i = d; i <= depth; i++){
+                sequenceKeys[d] ^= Zobrist.sequenceKey(shapes[i], i - d);
+            }
+        }
+        table.nextGeneration();
+
+        int[] candidates = new int[maxPlacements(columns)];         // (column + 8) * 4 + rotation of every reachable placement
+        int count = enumerate(engine.gameBoard, columns, shapes[0], spawnRow, spawnColumn, candidates);
+        if(count == 0){
+            return null;
+        }
+        double[] scores = new double[count];
+        if(parallel && depth > 0 && count > 1){
+            ForkJoinPool.commonPool().invoke(new EvaluateTask(engine.gameBoard, engine.columnTop.clone(), engine.boardHash(), engine.zobrist, sequenceKeys, shapes, spawnRow, spawnColumn, candidates, scores, 0, count));
+        }else{
+            Search search = new Search(rows, columns, engine.zobrist, table, sequenceKeys);
+            System.arraycopy(engine.columnTop, 0, search.tops[0], 0, columns);
+            for(int i = 0; i < count; i++){
+                scores[i] = evaluatePlacement(search, engine.gameBoard, engine.boardHash(), shapes, 0, spawnRow, spawnColumn, candidates[i]);
+            }
+            evaluations += search.evaluations;
+        }
+        int best = 0;
+        for(int i = 1; i < count; i++){
+            if(scores[i] > scores[best]){
+                best = i;
+            }
+        }
+        return new Placement(candidates[best] & 3, (candidates[best] >> 2) - 8, scores[best]);
+    }
+
+    class EvaluateTask extends RecursiveAction {        // splits first level placements between threads, each leaf has its own scratch boards
+        private static final long serialVersionUID = 1L;
+        final long[] board;
+        final int[] tops;
+        final long hash;
+        final Zobrist zobrist;
+        final long[] sequenceKeys;
+        final Engine.Shape[] shapes;
+        final int spawnRow;
+        final int spawnColumn;
+        final int[] candidates;
+        final double[] scores;
+        final int from;
+        final int to;
+
+        EvaluateTask(long[] board, int[] tops, long hash, Zobrist zobrist, long[] sequenceKeys, Engine.Shape[] shapes, int spawnRow, int spawnColumn, int[] candidates, double[] scores, int from, int to){
+            this.board = board;
+            this.tops = tops;
+            this.hash = hash;
+            this.zobrist = zobrist;
+            this.sequenceKeys = sequenceKeys;
+            this.shapes = shapes;
+            this.spawnRow = spawnRow;
+            this.spawnColumn = spawnColumn;
+            this.candidates = candidates;
+            this.scores = scores;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if(to - from > 2){
+                int middle = (from + to) >>> 1;
+                invokeAll(new EvaluateTask(board, tops, hash, zobrist, sequenceKeys, shapes, spawnRow, spawnColumn, candidates, scores, from, middle),
+                        new EvaluateTask(board, tops, hash, zobrist, sequenceKeys, shapes, spawnRow, spawnColumn, candidates, scores, middle, to));
+                return;
+            }
+            Search search = new Search(board.length / zobrist.words, zobrist.columns, zobrist, table, sequenceKeys);
+            System.arraycopy(tops, 0, search.tops[0], 0, tops.length);
+            for(int i = from; i < to; i++){
+                scores[i] = evaluatePlacement(search, board, hash, shapes, 0, spawnRow, spawnColumn, candidates[i]);
+            }
+            synchronized (PlacementAgent.this){
+                evaluations += search.evaluations;
+            }
+        }
+    }
+
+    static int maxPlacements(int columns){
+        return RotationTable.ROTATIONS * columns;
+    }
+
+    static int enumerate(long[] board, int columns, Engine.Shape shape, int spawnRow, int spawnColumn, int[] candidates){        // placements reachable by rotating at spawn and shifting sideways
+        int count = 0;
+        int rotations = shape == Engine.Shape.RECTSHAPE ? 1 : RotationTable.ROTATIONS;
+        for(int rotation = 0; rotation < rotations; rotation++){
+            int orientation = RotationTable.orientation(shape, rotation);
+            if(!Bitboard.fits(board, columns, orientation, spawnRow, spawnColumn)){
+                continue;
+            }
+            candidates[count++] = (spawnColumn + 8) * 4 + rotation;
+            for(int column = spawnColumn - 1; Bitboard.fits(board, columns, orientation, spawnRow, column); column--){
+                candidates[count++] = (column + 8) * 4 + rotation;
+            }
+            for(int column = spawnColumn + 1; Bitboard.fits(board, columns, orientation, spawnRow, column); column++){
+                candidates[count++] = (column + 8) * 4 + rotation;
+            }
+        }
+        return count;
+    }
+
+    static double evaluatePlacement(Search search, long[] board, long hash, Engine.Shape[] shapes, int depth, int spawnRow, int spawnColumn, int candidate){     // value of the best line of play starting with given placement
+        long[] next = search.boards[depth];
+        System.arraycopy(board, 0, next, 0, board.length);
+        int orientation = RotationTable.orientation(shapes[depth], candidate & 3);
+        int column = (candidate >> 2) - 8;
+        int[] tops = search.tops[depth];        // of the board before this placement
+        int row = Bitboard.dropRow(next, search.columns, tops, orientation, spawnRow, column);
+        Bitboard.place(next, search.columns, orientation, row, column);
+        int lines = Bitboard.clearLines(next, search.columns, Math.max(0, row), Math.min(search.rows - 1, row + 3), 0, search.clearedRows);
+        if(depth + 1 == shapes.length){         // leaves are cheaper to evaluate than to hash and look up
+            search.evaluations++;
+            return evaluateBoard(search, next, lines);
+        }
+        long nextHash = lines == 0 ? search.zobrist.place(hash, orientation, row, column) : search.zobrist.hash(next);        // cleared rows move everything above them
+        int remaining = shapes.length - 1 - depth;
+        long key = nextHash ^ search.sequenceKeys[depth + 1];
+        double best = search.table.probe(key, remaining);       // different orders of placements often reach the same board
+        if(Double.isNaN(best)){
+            int[] nextTops = search.tops[depth + 1];
+            if(lines == 0){
+                System.arraycopy(tops, 0, nextTops, 0, search.columns);
+                Bitboard.placeTops(nextTops, orientation, row, column);
+            }else{
+                Bitboard.columnTops(next, search.columns, nextTops);
+            }
+            int[] candidates = search.candidates[depth + 1];
+            int count = enumerate(next, search.columns, shapes[depth + 1], spawnRow, spawnColumn, candidates);
+            best = Double.NEGATIVE_INFINITY;         // next piece cannot spawn, game would be over
+            for(int i = 0; i < count; i++){
+                best = Math.max(best, evaluatePlacement(search, next, nextHash, shapes, depth + 1, spawnRow, spawnColumn, candidates[i]));
+            }
+            search.table.store(key, remaining, best);
+        }
+        return best + LINES_WEIGHT * lines;
+    }
+
+    static double evaluateBoard(Search search, long[] board, int lines){
+        int height = Bitboard.columnHeights(board, search.columns, search.heights);
+        int bumpiness = 0;
+        for(int i = 1; i < search.columns; i++){
+            bumpiness += Math.abs(search.heights[i] - search.heights[i - 1]);
+        }
+        return HEIGHT_WEIGHT * height + LINES_WEIGHT * lines + HOLES_WEIGHT * Bitboard.holes(board, search.columns) + BUMPINESS_WEIGHT * bumpiness;
+    }
+
+    public long getEvaluations() {
+        return evaluations;
+    }
+
+    public double getCacheHitRate() {
+        long probes = table.hits + table.misses;
+        return probes == 0 ? 0 : (double) table.hits / probes;
+    }
+}
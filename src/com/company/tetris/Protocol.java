@@ -0,0 +1,120 @@
+/*
+        Project title: Tetris
+        Author: Jakub Sobczyński
+        GitHub: https://github.com/J-Sob
+ */
+
+package com.company.tetris;
+
+import java.nio.ByteBuffer;
+
+final class Protocol {      // messages between GameServer and its clients
+
+    /*
+        Every message is short length of the rest, byte type, payload, numbers big-endian.
+        Client to server:
+            CONNECT     long seed, starts a new game, again after game over to play another one
+            INPUT       byte input ordinal, int sequence echoed back in the next STATE
+        Server to client:
+            WELCOME     int session id, int board rows, int board columns, int ticks per second
+            STATE       long tick, int last applied input sequence, byte shape, byte rotation, int piece row, int piece column,
+                        int score, byte next shape, int changed row count, then every changed row as int index and its words
+            GAME_OVER   int score, int pieces placed, int lines cleared
+            KEYFRAME    like STATE, but the rows are every row of the stack and all rows above them are empty
+        STATE is sent after a tick that changed the game or applied an input, so it carries only rows changed since the previous one.
+        Rows that do not fit into one message follow in further STATE messages.
+        Spectators of a SpectatorStream get the same messages, STATE sequence is then the number of the frame,
+        every keyframe starts with WELCOME so a spectator that joins or skips ahead learns the board size from it.
+     */
+    static final byte CONNECT = 1;
+    static final byte INPUT = 2;
+    static final byte WELCOME = 1;
+    static final byte STATE = 2;
+    static final byte GAME_OVER = 3;
+    static final byte KEYFRAME = 4;
+
+    static final int HEADER_SIZE = 3;       // length and type
+    static final int STATE_SIZE = 8 + 4 + 1 + 1 + 4 + 4 + 4 + 1 + 4;       // without rows
+    static final int WELCOME_SIZE = 16;
+    static final int GAME_OVER_SIZE = 12;
+    static final int MAX_MESSAGE_SIZE = 0xFFFF;
+
+    private Protocol(){}
+
+    static int start(ByteBuffer buffer, byte type){         // returns position of the length, written by end()
+        int start = buffer.position();
+        buffer.putShort((short) 0).put(type);
+        return start;
+    }
+
+    static void end(ByteBuffer buffer, int start){
+        buffer.putShort(start, (short) (buffer.position() - start - 2));
+    }
+
+    static void putConnect(ByteBuffer buffer, long seed){
+        int start = start(buffer, CONNECT);
+        buffer.putLong(seed);
+        end(buffer, start);
+    }
+
+    static void putInput(ByteBuffer buffer, Engine.Input input, int sequence){
+        int start = start(buffer, INPUT);
+        buffer.put((byte) input.ordinal()).putInt(sequence);
+        end(buffer, start);
+    }
+
+    static void putWelcome(ByteBuffer buffer, int id, int rows, int columns){
+        int start = start(buffer, WELCOME);
+        buffer.putInt(id).putInt(rows).putInt(columns).putInt(GameLoop.TICKS_PER_SECOND);
+        end(buffer, start);
+    }
+
+    static void putGameOver(ByteBuffer buffer, Engine engine){
+        int start = start(buffer, GAME_OVER);
+        buffer.putInt(engine.getScore()).putInt(engine.getPiecesPlaced()).putInt(engine.getLinesCleared());
+        end(buffer, start);
+    }
+
+    static int rowsPerState(Engine engine){         // most rows one STATE message can carry
+        return (MAX_MESSAGE_SIZE - STATE_SIZE - 1) / (4 + 8 * engine.words);
+    }
+
+    static int statesSize(Engine engine, int rows){         // bytes of putStates() for that many rows
+        int messages = Math.max(1, (rows + rowsPerState(engine) - 1) / rowsPerState(engine));
+        return messages * (HEADER_SIZE + STATE_SIZE) + rows * (4 + 8 * engine.words);
+    }
+
+    static void putStates(ByteBuffer buffer, byte type, Engine engine, int sequence, int[] rows, int count){        // first message of given type, rows that do not fit follow in STATE messages
+        int perMessage = rowsPerState(engine);
+        int first = 0;
+        do {
+            int rowsInMessage = Math.min(perMessage, count - first);
+            putState(buffer, first == 0 ? type : STATE, engine, sequence, rows, first, rowsInMessage);
+            first += rowsInMessage;
+        } while(first < count);
+    }
+
+    static void putState(ByteBuffer buffer, byte type, Engine engine, int sequence, int[] rows, int from, int count){       // count indices of changed rows starting at from
+        int start = start(buffer, type);
+        buffer.putLong(engine.getTickCount()).putInt(sequence);
+        buffer.put((byte) engine.tetro.getShape().ordinal()).put((byte) engine.tetro.getRotation());
+        buffer.putInt(engine.tetro.getRowPos()).putInt(engine.tetro.getColumnPos());
+        buffer.putInt(engine.getScore()).put((byte) engine.getUpcomingShape(0).ordinal());
+        buffer.putInt(count);
+        for(int i = from; i < from + count; i++){
+            buffer.putInt(rows[i]);
+            for(int w = 0; w < engine.words; w++){
+                buffer.putLong(engine.gameBoard[rows[i] * engine.words + w]);
+            }
+        }
+        end(buffer, start);
+    }
+
+    static int messageLength(ByteBuffer buffer){        // length of the next complete message in a buffer ready for reading, -1 when it is not all there
+        if(buffer.remaining() < 2){
+            return -1;
+        }
+        int length = buffer.getShort(buffer.position()) & 0xFFFF;
+        return buffer.remaining() >= 2 + length ? length : -1;
+    }
+}
@@ -0,0 +1,101 @@
+/*
+        Project title: Tetris
+        Author: Jakub Sobczyński
+        GitHub: https://github.com/J-Sob
+ */
+
+package com.company.tetris;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+public class ReplayPlayer {         // re-simulates a recorded game headless and checks it ends the way the file says
+
+    static class Result {
+        long ticks;
+        int expectedScore;
+        int actualScore;
+        long expectedHash;
+        long actualHash;
+
+        boolean matches(){
+            return expectedScore == actualScore && expectedHash == actualHash;
+        }
+    }
+
+    static Result verify(Path path) throws IOException {
+        ByteBuffer buffer;
+        try(FileChannel channel = FileChannel.open(path)){
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        return verify(buffer);
+    }
+
+    static Result verify(ByteBuffer buffer){
+        if(buffer.getInt() != ReplayRecorder.MAGIC){
+            throw new IllegalArgumentException("Not a replay file");
+        }
+        byte version = buffer.get();
+        if(version < 1 || version > ReplayRecorder.VERSION){
+            throw new IllegalArgumentException("Unsupported replay version: " + version);
+        }
+        long seed = buffer.getLong();
+        boolean sevenBag = buffer.get() != 0;
+        int previewDepth = buffer.get();
+        int gravityTicks = buffer.getInt();
+        int rows = version >= 3 ? buffer.getInt() : Engine.DEFAULT_ROWS;
+        int columns = version >= 3 ? buffer.getInt() : Engine.DEFAULT_COLUMNS;
+        Engine engine = new Engine(rows, columns, seed, sevenBag, previewDepth);
+        engine.setGravityTicks(gravityTicks);
+        if(version >= 4){
+            engine.setStartLevel(buffer.getInt());
+            engine.setLockDelay(buffer.getInt(), buffer.getInt());
+        }
+        Engine.Input[] inputs = Engine.Input.values();
+
+        Result result = new Result();
+        while(true){
+            long tick = engine.getTickCount() + ReplayRecorder.getVarLong(buffer);
+            while(engine.getTickCount() < tick){        // same order as GameLoop.step(), inputs of a tick come before the tick itself
+                engine.tick();
+            }
+            int code = buffer.get() & 0xFF;
+            if(code == ReplayRecorder.END){
+                result.expectedScore = buffer.getInt();
+                result.expectedHash = buffer.getLong();
+                break;
+            }
+            engine.applyInput(inputs[code]);
+        }
+        result.ticks = engine.getTickCount();
+        result.actualScore = engine.getScore();
+        result.actualHash = version == 1 ? rowsHash(engine.gameBoard) : engine.boardHash();
+        return result;
+    }
+
+    static long rowsHash(long[] rows){       // board hash written by version 1 replays, default board has one word per row
+        long hash = 0xcbf29ce484222325L;
+        for(long row : rows){
+            hash = (hash ^ row) * 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    public static void main(String[] args) throws IOException {         // usage: ReplayPlayer file...
+        boolean allMatch = true;
+        for(String file : args){
+            long start = System.nanoTime();
+            Result result = verify(Paths.get(file));
+            double millis = (System.nanoTime() - start) / 1e6;
+            allMatch &= result.matches();
+            System.out.printf("%s: %s, score %d (recorded %d), %d ticks in %.1f ms%n", file,
+                    result.matches() ? "OK" : "MISMATCH", result.actualScore, result.expectedScore, result.ticks, millis);
+        }
+        if(!allMatch){
+            System.exit(1);
+        }
+    }
+}
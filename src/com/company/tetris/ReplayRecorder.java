@@ -0,0 +1,120 @@
+/*
+        Project title: Tetris
+        Author: Jakub Sobczyński
+        GitHub: https://github.com/J-Sob
+ */
+
+package com.company.tetris;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+public class ReplayRecorder {       // writes a game as its seed and settings followed by (tick delta, input) pairs
+
+    /*
+        File layout, numbers big-endian:
+        int magic, byte version, long seed, byte seven bag, byte preview depth, int gravity ticks, int board rows, int board columns,
+        int start level, int lock delay, int lock resets
+        events: varint ticks since previous event, byte input ordinal
+        end: varint ticks since previous event, byte END, int score, long board hash
+        version 1 files hold an FNV hash of the rows, version 2 the Zobrist hash from Engine.boardHash(),
+        both are played on the default board and have no board size in the header, files before version 4 have fixed gravity
+     */
+    static final int MAGIC = 0x54525031;        // "TRP1"
+    static final byte VERSION = 4;
+    static final int END = 0xFF;
+
+    final Path path;
+    final FileChannel channel;
+    final ByteBuffer buffer = ByteBuffer.allocateDirect(8192);
+    long lastTick;
+    boolean failed;
+
+    public ReplayRecorder(Path path, Engine engine) throws IOException {        // engine should be at the start of a game
+        this.path = path;
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        buffer.putInt(MAGIC);
+        buffer.put(VERSION);
+        buffer.putLong(engine.getSeed());
+        buffer.put((byte) (engine.generator.sevenBag ? 1 : 0));
+        buffer.put((byte) engine.getPreviewDepth());
+        buffer.putInt(engine.getGravityTicks());
+        buffer.putInt(engine.getBoardRows());
+        buffer.putInt(engine.getBoardColumns());
+        buffer.putInt(engine.getStartLevel());
+        buffer.putInt(engine.getLockDelay());
+        buffer.putInt(engine.getMaxLockResets());
+        this.lastTick = engine.getTickCount();
+    }
+
+    void record(long tick, Engine.Input input){         // input applied before given tick, usually 2 bytes
+        if(failed){
+            return;
+        }
+        try {
+            ensureSpace(11);
+            putVarLong(buffer, tick - lastTick);
+            buffer.put((byte) input.ordinal());
+            lastTick = tick;
+        } catch (IOException e) {       // a broken replay must not stop the game
+            failed = true;
+            e.printStackTrace();
+        }
+    }
+
+    public void finish(Engine engine) throws IOException {      // writing final state used for verification and closing the file
+        try {
+            if(!failed){
+                ensureSpace(23);
+                putVarLong(buffer, engine.getTickCount() - lastTick);
+                buffer.put((byte) END);
+                buffer.putInt(engine.getScore());
+                buffer.putLong(engine.boardHash());
+                flush();
+            }
+        } finally {
+            channel.close();
+        }
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    private void ensureSpace(int bytes) throws IOException {
+        if(buffer.remaining() < bytes){
+            flush();
+        }
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while(buffer.hasRemaining()){
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    static void putVarLong(ByteBuffer buffer, long value){      // 7 bits per byte, highest bit marks that more bytes follow
+        while((value & ~0x7FL) != 0){
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    static long getVarLong(ByteBuffer buffer){
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while((b & 0x80) != 0);
+        return value;
+    }
+}
@@ -0,0 +1,138 @@
+/*
+        Project title: Tetris
+        Author: Jakub Sobczyński
+        GitHub: https://github.com/J-Sob
+ */
+
+package com.company.tetris;
+
+final class RotationTable {     // every shape in every orientation, computed once so rotating is just a lookup
+
+    static final int ROTATIONS = 4;
+    static final int CLOCKWISE = 0;
+    static final int COUNTER_CLOCKWISE = 1;
+
+    // orientation index is shape.ordinal() * ROTATIONS + rotation
+    static final int[] MASKS = new int[Engine.Shape.values().length * ROTATIONS];      // 4x4 box packed 4 bits per row, row 0 in the lowest bits
+    static final int[] MIN_COLUMN = new int[MASKS.length];     // bounds of occupied cells inside the box
+    static final int[] MAX_COLUMN = new int[MASKS.length];
+    static final int[] MIN_ROW = new int[MASKS.length];
+    static final int[] MAX_ROW = new int[MASKS.length];
+    static final int[] TOP = new int[MASKS.length * 4];        // highest and lowest occupied row of each box column, indexed by orientation * 4 + column, -1 when empty
+    static final int[] BOTTOM = new int[MASKS.length * 4];
+    static final int[][] KICKS = new int[MASKS.length * 2][];      // (column, row) offsets tried in order, indexed by orientation * 2 + direction
+
+    // SRS wall kicks written as (x, y) with y pointing up, for transitions 0->R, R->2, 2->L, L->0 (clockwise)
+    private static final int[][] JLSTZ_KICKS = {
+            {0, 0, -1, 0, -1, 1, 0, -2, -1, -2},
+            {0, 0, 1, 0, 1, -1, 0, 2, 1, 2},
+            {0, 0, 1, 0, 1, 1, 0, -2, 1, -2},
+            {0, 0, -1, 0, -1, -1, 0, 2, -1, 2},
+    };
+    private static final int[][] I_KICKS = {
+            {0, 0, -2, 0, 1, 0, -2, -1, 1, 2},
+            {0, 0, -1, 0, 2, 0, -1, 2, 2, -1},
+            {0, 0, 2, 0, -1, 0, 2, 1, -1, -2},
+            {0, 0, 1, 0, -2, 0, 1, -2, -2, 1},
+    };
+    private static final int[] NO_KICKS = {0, 0};
+
+    static {
+        for(Engine.Shape shape : Engine.Shape.values()){
+            int boxSize;
+            int spawn;
+            switch (shape) {        // spawn orientations, cells given as row * 4 + column
+                case ISHAPE -> { boxSize = 4; spawn = cells(4, 5, 6, 7); }
+                case TSHAPE -> { boxSize = 3; spawn = cells(1, 4, 5, 6); }
+                case RECTSHAPE -> { boxSize = 0; spawn = cells(1, 2, 5, 6); }
+                case LSHAPE -> { boxSize = 3; spawn = cells(2, 4, 5, 6); }
+                case JSHAPE -> { boxSize = 3; spawn = cells(0, 4, 5, 6); }
+                case SSHAPE -> { boxSize = 3; spawn = cells(1, 2, 4, 5); }
+                default -> { boxSize = 3; spawn = cells(0, 1, 5, 6); }     // ZSHAPE
+            }
+            int mask = spawn;
+            for(int rotation = 0; rotation < ROTATIONS; rotation++){
+                int index = shape.ordinal() * ROTATIONS + rotation;
+                MASKS[index] = mask;
+                computeBounds(index, mask);
+                if(boxSize == 0){
+                    KICKS[index * 2 + CLOCKWISE] = NO_KICKS;
+                    KICKS[index * 2 + COUNTER_CLOCKWISE] = NO_KICKS;
+                }else{
+                    int[][] table = boxSize == 4 ? I_KICKS : JLSTZ_KICKS;
+                    KICKS[index * 2 + CLOCKWISE] = toBoardOffsets(table[rotation], 1);
+                    KICKS[index * 2 + COUNTER_CLOCKWISE] = toBoardOffsets(table[(rotation + 3) % ROTATIONS], -1);      // reverse of the transition into this orientation
+                    mask = rotateClockwise(mask, boxSize);
+                }
+            }
+        }
+    }
+
+    private RotationTable(){}
+
+    static int orientation(Engine.Shape shape, int rotation){
+        return shape.ordinal() * ROTATIONS + rotation;
+    }
+
+    static int rowMask(int orientation, int row){       // columns occupied in given row of the box, bit j for column j
+        return MASKS[orientation] >>> (row * 4) & 0xF;
+    }
+
+    static int rotate(int rotation, int direction){
+        return direction == CLOCKWISE ? (rotation + 1) & 3 : (rotation + 3) & 3;
+    }
+
+    private static int cells(int... cells){
+        int mask = 0;
+        for(int cell : cells){
+            mask |= 1 << cell;
+        }
+        return mask;
+    }
+
+    private static int rotateClockwise(int mask, int size){        // rotating inside the size x size box so pieces keep their pivot
+        int rotated = 0;
+        for(int i = 0; i < size; i++){
+            for(int j = 0; j < size; j++){
+                if((mask >>> ((size - 1 - j) * 4 + i) & 1) != 0){
+                    rotated |= 1 << (i * 4 + j);
+                }
+            }
+        }
+        return rotated;
+    }
+
+    private static void computeBounds(int index, int mask){
+        int columns = 0;
+        MIN_ROW[index] = -1;
+        for(int i = 0; i < 4; i++){
+            int row = mask >>> (i * 4) & 0xF;
+            if(row != 0){
+                columns |= row;
+                if(MIN_ROW[index] < 0) MIN_ROW[index] = i;
+                MAX_ROW[index] = i;
+            }
+        }
+        MIN_COLUMN[index] = Integer.numberOfTrailingZeros(columns);
+        MAX_COLUMN[index] = 31 - Integer.numberOfLeadingZeros(columns);
+        for(int j = 0; j < 4; j++){
+            TOP[index * 4 + j] = -1;
+            BOTTOM[index * 4 + j] = -1;
+            for(int i = 0; i < 4; i++){
+                if((mask >>> (i * 4 + j) & 1) != 0){
+                    if(TOP[index * 4 + j] < 0) TOP[index * 4 + j] = i;
+                    BOTTOM[index * 4 + j] = i;
+                }
+            }
+        }
+    }
+
+    private static int[] toBoardOffsets(int[] kicks, int sign){        // flipping y so positive offsets go down the board
+        int[] offsets = new int[kicks.length];
+        for(int i = 0; i < kicks.length; i += 2){
+            offsets[i] = sign * kicks[i];
+            offsets[i + 1] = -sign * kicks[i + 1];
+        }
+        return offsets;
+    }
+}
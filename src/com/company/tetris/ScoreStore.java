@@ -0,0 +1,427 @@
+/*
+        Project title: Tetris
+        Author: Jakub Sobczyński
+        GitHub: https://github.com/J-Sob
+ */
+
+package com.company.tetris;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public class ScoreStore implements Closeable {      // high scores kept as a binary append-only log plus a sorted snapshot, queried from memory
+
+    /*
+        Both files start with int magic and long generation, records are
+        short name length, name bytes (UTF-8), int score, long time, short replay length, replay bytes.
+        Snapshot additionally has int record count after the header and keeps records sorted by score, best first.
+        A log whose generation differs from the snapshot was already compacted into it and is ignored.
+        In memory the scores are a sorted array, records of the snapshot are only decoded when a query returns them.
+        New entries go to a small sorted batch first, it is merged into the array once it holds about
+        the square root of the stored count, so an insert moves that many entries instead of all of them.
+     */
+    static final int LOG_MAGIC = 0x54534C31;        // "TSL1"
+    static final int SNAPSHOT_MAGIC = 0x54535331;       // "TSS1"
+    static final int HEADER_SIZE = 12;
+    static final long COMMIT_INTERVAL_MILLIS = 20;      // writes arriving within this time share one write and fsync
+    static final long COMPACT_LOG_SIZE = 1 << 20;       // log is folded into the snapshot when it grows past this
+    static final int MIN_RECENT = 64;       // smallest batch of entries merged at once
+    static final int MAX_FIELD_BYTES = 0xFFFF;      // names and replay paths are stored with an unsigned short length
+
+    public static class Entry {
+        final String name;
+        final int score;
+        final long time;
+        final String replay;
+
+        Entry(String name, int score, long time, String replay){
+            this.name = name;
+            this.score = score;
+            this.time = time;
+            this.replay = replay;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getScore() {
+            return score;
+        }
+
+        public long getTime() {
+            return time;
+        }
+
+        public String getReplay() {
+            return replay;
+        }
+    }
+
+    final Path logPath;
+    final Path snapshotPath;
+    FileChannel log;
+    long generation;
+    int[] scores = new int[64];         // merged entries sorted by score, best first, ties in the order they were added
+    Entry[] entries = new Entry[64];        // null while the entry is only a record in snapshotRecords
+    int[] offsets = new int[64];        // positions of snapshot records, -1 for entries added since the store was opened
+    ByteBuffer snapshotRecords;         // contents of the snapshot file loaded on open
+    int size;
+    Entry[] recent = new Entry[MIN_RECENT];         // entries added since the last merge, sorted the same way
+    int recentSize;
+    final Map<String, Entry> bestByPlayer = new HashMap<>();        // best of every player among entries added since the store was opened
+    ByteBuffer pending = ByteBuffer.allocate(4096);         // records waiting for the next group commit
+    final ScheduledExecutorService committer;
+
+    public static ScoreStore open(Path directory) throws IOException {      // importing scores.txt from the directory the first time
+        Files.createDirectories(directory);
+        boolean fresh = !Files.exists(directory.resolve("scores.snapshot")) && !Files.exists(directory.resolve("scores.log"));
+        ScoreStore store = new ScoreStore(directory.resolve("scores.log"), directory.resolve("scores.snapshot"));
+        Path text = directory.resolve("scores.txt");
+        if(fresh && Files.exists(text)){
+            store.importText(text);
+            store.compact();
+        }
+        return store;
+    }
+
+    ScoreStore(Path logPath, Path snapshotPath) throws IOException {
+        this.logPath = logPath;
+        this.snapshotPath = snapshotPath;
+        if(Files.exists(snapshotPath)){
+            loadSnapshot();
+        }
+        openLog();
+        committer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "score-store-commit");
+            thread.setDaemon(true);
+            return thread;
+        });
+        committer.scheduleWithFixedDelay(this::commitQuietly, COMMIT_INTERVAL_MILLIS, COMMIT_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized Entry submit(String name, int score, String replay){        // visible to queries at once, written by the next group commit
+        byte[] nameBytes = truncate(name.getBytes(StandardCharsets.UTF_8));         // names longer than a record holds are cut
+        byte[] replayBytes = replay == null ? new byte[0] : replay.getBytes(StandardCharsets.UTF_8);
+        if(replayBytes.length > MAX_FIELD_BYTES){       // a cut path would point nowhere, the score is kept without its replay
+            replayBytes = new byte[0];
+        }
+        Entry entry = new Entry(new String(nameBytes, StandardCharsets.UTF_8), score, System.currentTimeMillis(), new String(replayBytes, StandardCharsets.UTF_8));
+        index(entry);
+        int length = 2 + nameBytes.length + 4 + 8 + 2 + replayBytes.length;
+        if(pending.remaining() < length){
+            pending = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + length)).put(pending.flip());
+        }
+        putRecord(pending, nameBytes, score, entry.time, replayBytes);
+        return entry;
+    }
+
+    public synchronized Entry[] top(int k){         // merged entries and the batch walked together, newer entries last on ties
+        Entry[] top = new Entry[Math.min(k, size + recentSize)];
+        int i = 0;
+        int j = 0;
+        for(int n = 0; n < top.length; n++){
+            if(j == recentSize || i < size && scores[i] >= recent[j].score){
+                top[n] = entry(i++);
+            }else{
+                top[n] = recent[j++];
+            }
+        }
+        return top;
+    }
+
+    public synchronized Entry best(String name){        // snapshot records better than the player's newer best are searched by their name bytes
+        Entry best = bestByPlayer.get(name);
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        for(int i = 0; i < size && (best == null || scores[i] >= best.score); i++){
+            if(offsets[i] >= 0 && hasName(offsets[i], nameBytes)){
+                return entry(i);
+            }
+        }
+        return best;
+    }
+
+    public synchronized int rank(int score){        // 1 for the best score, ties share a rank
+        return countBetter(score) + 1;
+    }
+
+    public synchronized double percentile(int score){       // percent of stored scores lower than given one
+        int total = size + recentSize;
+        if(total == 0){
+            return 100;
+        }
+        int notLower = countBetter(score - 1);      // entries with score >= given one
+        return 100.0 * (total - notLower) / total;
+    }
+
+    public synchronized int size(){
+        return size + recentSize;
+    }
+
+    public synchronized void commit() throws IOException {      // one write and one fsync for every record submitted since the last commit
+        if(pending.position() == 0){
+            return;
+        }
+        pending.flip();
+        while(pending.hasRemaining()){
+            log.write(pending);
+        }
+        pending.clear();
+        log.force(false);
+        if(log.size() > COMPACT_LOG_SIZE){
+            compact();
+        }
+    }
+
+    public synchronized void compact() throws IOException {         // sorted snapshot of everything, then a new empty log
+        pending.clear();        // pending records are already in the index and go into the snapshot
+        merge();
+        long nextGeneration = generation + 1;
+        Path temp = snapshotPath.resolveSibling(snapshotPath.getFileName() + ".tmp");
+        try(FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)){
+            ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+            buffer.putInt(SNAPSHOT_MAGIC).putLong(nextGeneration).putInt(size);
+            for(int i = 0; i < size; i++){
+                Entry entry = entries[i];
+                byte[] nameBytes = entry != null ? entry.name.getBytes(StandardCharsets.UTF_8) : null;
+                byte[] replayBytes = entry != null ? entry.replay.getBytes(StandardCharsets.UTF_8) : null;
+                int length = entry != null ? 16 + nameBytes.length + replayBytes.length : recordLength(snapshotRecords, offsets[i]);
+                if(buffer.remaining() < length){
+                    writeFully(channel, buffer);
+                    if(buffer.capacity() < length){         // record bigger than the whole buffer
+                        buffer = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, length));
+                    }
+                }
+                if(entry != null){
+                    putRecord(buffer, nameBytes, entry.score, entry.time, replayBytes);
+                }else{
+                    buffer.put(snapshotRecords.array(), offsets[i], length);        // record not decoded yet is copied as it is
+                }
+            }
+            writeFully(channel, buffer);
+            channel.force(true);
+        }
+        Files.move(temp, snapshotPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        generation = nextGeneration;
+        log.close();
+        Files.delete(logPath);
+        openLog();
+    }
+
+    public synchronized int importText(Path file) throws IOException {      // reading lines written by the old saveScore()
+        Pattern line = Pattern.compile("Nickname: (.*), Score: (-?\\d+)(?:, Replay: (.*))?");
+        int imported = 0;
+        try(BufferedReader reader = Files.newBufferedReader(file)){
+            String text;
+            while((text = reader.readLine()) != null){
+                Matcher matcher = line.matcher(text);
+                if(matcher.matches()){
+                    submit(matcher.group(1), Integer.parseInt(matcher.group(2)), matcher.group(3));
+                    imported++;
+                }
+            }
+        }
+        return imported;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        committer.shutdown();
+        commit();
+        log.close();
+    }
+
+    private void commitQuietly(){
+        try {
+            commit();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void index(Entry entry){        // into the batch after every entry with the same or better score
+        if(recentSize == recent.length){
+            merge();
+        }
+        int position = countBetter(recent, recentSize, entry.score - 1);
+        System.arraycopy(recent, position, recent, position + 1, recentSize - position);
+        recent[position] = entry;
+        recentSize++;
+        Entry best = bestByPlayer.get(entry.name);
+        if(best == null || entry.score > best.score){
+            bestByPlayer.put(entry.name, entry);
+        }
+    }
+
+    private void merge(){       // batch into the sorted array from the back, a batch entry goes after merged ones with the same score
+        int total = size + recentSize;
+        if(total > scores.length){
+            int capacity = Math.max(scores.length * 2, total);
+            scores = Arrays.copyOf(scores, capacity);
+            entries = Arrays.copyOf(entries, capacity);
+            offsets = Arrays.copyOf(offsets, capacity);
+        }
+        int i = size - 1;
+        int j = recentSize - 1;
+        for(int k = total - 1; j >= 0; k--){
+            if(i >= 0 && scores[i] < recent[j].score){
+                scores[k] = scores[i];
+                entries[k] = entries[i];
+                offsets[k] = offsets[i];
+                i--;
+            }else{
+                scores[k] = recent[j].score;
+                entries[k] = recent[j];
+                offsets[k] = -1;
+                j--;
+            }
+        }
+        Arrays.fill(recent, 0, recentSize, null);
+        size = total;
+        recentSize = 0;
+        int batch = Math.max(MIN_RECENT, (int) Math.sqrt(size));
+        if(recent.length < batch){
+            recent = new Entry[batch];
+        }
+    }
+
+    private Entry entry(int i){         // merged entry, decoding its snapshot record the first time
+        if(entries[i] == null){
+            entries[i] = getRecord(snapshotRecords.position(offsets[i]));
+        }
+        return entries[i];
+    }
+
+    private boolean hasName(int offset, byte[] name){       // comparing without decoding the record
+        int length = snapshotRecords.getShort(offset) & 0xFFFF;
+        return length == name.length && Arrays.equals(snapshotRecords.array(), offset + 2, offset + 2 + length, name, 0, length);
+    }
+
+    private int countBetter(int score){         // number of entries with score higher than given one
+        int low = 0;
+        int high = size;
+        while(low < high){      // binary search over the sorted array
+            int middle = (low + high) >>> 1;
+            if(scores[middle] > score){
+                low = middle + 1;
+            }else{
+                high = middle;
+            }
+        }
+        return low + countBetter(recent, recentSize, score);
+    }
+
+    private static int countBetter(Entry[] sorted, int count, int score){
+        int low = 0;
+        int high = count;
+        while(low < high){
+            int middle = (low + high) >>> 1;
+            if(sorted[middle].score > score){
+                low = middle + 1;
+            }else{
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private void loadSnapshot() throws IOException {        // only scores and record positions are read, records are already sorted
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(snapshotPath));
+        if(buffer.getInt() != SNAPSHOT_MAGIC){
+            throw new IOException("Not a score snapshot: " + snapshotPath);
+        }
+        generation = buffer.getLong();
+        int count = buffer.getInt();
+        int capacity = Math.max(64, count);
+        scores = new int[capacity];
+        entries = new Entry[capacity];
+        offsets = new int[capacity];
+        int offset = buffer.position();
+        for(int i = 0; i < count; i++){
+            offsets[i] = offset;
+            scores[i] = buffer.getInt(offset + 2 + (buffer.getShort(offset) & 0xFFFF));
+            offset += recordLength(buffer, offset);
+        }
+        snapshotRecords = buffer;
+        size = count;
+        recent = new Entry[Math.max(MIN_RECENT, (int) Math.sqrt(size))];
+    }
+
+    private void openLog() throws IOException {         // replaying only records written after the last compaction
+        log = FileChannel.open(logPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if(log.size() >= HEADER_SIZE){
+            ByteBuffer buffer = log.map(FileChannel.MapMode.READ_ONLY, 0, log.size());
+            if(buffer.getInt() == LOG_MAGIC && buffer.getLong() == generation){
+                long valid = HEADER_SIZE;
+                try {
+                    while(buffer.hasRemaining()){
+                        index(getRecord(buffer));
+                        valid = buffer.position();
+                    }
+                } catch (RuntimeException e) {     // torn record at the end after a crash, cut it off
+                    log.truncate(valid);
+                }
+                log.position(valid);
+                return;
+            }
+        }
+        log.truncate(0);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(LOG_MAGIC).putLong(generation);
+        writeFully(log, header);
+        log.force(false);
+    }
+
+    static byte[] truncate(byte[] text){        // UTF-8 text cut to MAX_FIELD_BYTES on a character boundary
+        if(text.length <= MAX_FIELD_BYTES){
+            return text;
+        }
+        int length = MAX_FIELD_BYTES;
+        while((text[length] & 0xC0) == 0x80){       // byte after the cut continues a character, so that character goes too
+            length--;
+        }
+        return Arrays.copyOf(text, length);
+    }
+
+    private static int recordLength(ByteBuffer buffer, int offset){
+        int nameLength = buffer.getShort(offset) & 0xFFFF;
+        return 16 + nameLength + (buffer.getShort(offset + 14 + nameLength) & 0xFFFF);
+    }
+
+    private static void putRecord(ByteBuffer buffer, byte[] name, int score, long time, byte[] replay){
+        buffer.putShort((short) name.length).put(name).putInt(score).putLong(time).putShort((short) replay.length).put(replay);
+    }
+
+    private static Entry getRecord(ByteBuffer buffer){
+        byte[] name = new byte[buffer.getShort() & 0xFFFF];
+        buffer.get(name);
+        int score = buffer.getInt();
+        long time = buffer.getLong();
+        byte[] replay = new byte[buffer.getShort() & 0xFFFF];
+        buffer.get(replay);
+        return new Entry(new String(name, StandardCharsets.UTF_8), score, time, new String(replay, StandardCharsets.UTF_8));
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while(buffer.hasRemaining()){
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
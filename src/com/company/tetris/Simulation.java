@@ -0,0 +1,124 @@
+/*
+        Project title: Tetris
+        Author: Jakub Sobczyński
+        GitHub: https://github.com/J-Sob
+ */
+
+package com.company.tetris;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+public class Simulation {       // headless runner playing many games in parallel without JavaFX
+
+    static class Results {      // totals of a range of games, merged going up the fork-join tree
+        long pieces;
+        long lines;
+        int[] scores;
+
+        Results(int games){
+            this.scores = new int[games];
+        }
+
+        Results merge(Results other){
+            Results merged = new Results(0);
+            merged.pieces = pieces + other.pieces;
+            merged.lines = lines + other.lines;
+            merged.scores = Arrays.copyOf(scores, scores.length + other.scores.length);
+            System.arraycopy(other.scores, 0, merged.scores, scores.length, other.scores.length);
+            return merged;
+        }
+    }
+
+    static class GamesTask extends RecursiveTask<Results> {     // splits games in halves until a range is small enough to play on one thread
+        private static final long serialVersionUID = 1L;
+        static final int GAMES_PER_TASK = 4;
+        final int firstGame;
+        final int games;
+        final String policy;
+        final int maxPieces;
+        final long seed;
+        final int rows;
+        final int columns;
+
+        GamesTask(int firstGame, int games, String policy, int maxPieces, long seed, int rows, int columns){
+            this.firstGame = firstGame;
+            this.games = games;
+            this.policy = policy;
+            this.maxPieces = maxPieces;
+            this.seed = seed;
+            this.rows = rows;
+            this.columns = columns;
+        }
+
+        @Override
+        protected Results compute() {
+            if(games > GAMES_PER_TASK){
+                int half = games / 2;
+                GamesTask left = new GamesTask(firstGame, half, policy, maxPieces, seed, rows, columns);
+                GamesTask right = new GamesTask(firstGame + half, games - half, policy, maxPieces, seed, rows, columns);
+                left.fork();
+                Results rightResults = right.compute();
+                return left.join().merge(rightResults);
+            }
+            Results results = new Results(games);
+            for(int i = 0; i < games; i++){
+                Engine engine = new Engine(rows, columns, seed + firstGame + i, false, 1);
+                playGame(engine, MovePolicy.create(policy, seed + firstGame + i), maxPieces);
+                results.pieces += engine.getPiecesPlaced();
+                results.lines += engine.getLinesCleared();
+                results.scores[i] = engine.getScore();
+            }
+            return results;
+        }
+    }
+
+    static void playGame(Engine engine, MovePolicy policy, int maxPieces){        // every piece is placed by the policy and hard dropped
+        while(!engine.isGameOver() && engine.getPiecesPlaced() < maxPieces){
+            policy.placePiece(engine);
+            engine.hardDrop();
+        }
+    }
+
+    static Results run(int games, int threads, String policy, int maxPieces, long seed, int rows, int columns){
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            return pool.invoke(new GamesTask(0, games, policy, maxPieces, seed, rows, columns));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    static void printReport(Results results, long elapsedNanos){
+        double seconds = elapsedNanos / 1e9;
+        int[] scores = results.scores.clone();
+        Arrays.sort(scores);
+        double mean = Arrays.stream(scores).average().orElse(0);
+        System.out.printf("Games: %d, time: %.2f s%n", scores.length, seconds);
+        System.out.printf("Pieces: %d (%.0f pieces/s)%n", results.pieces, results.pieces / seconds);
+        System.out.printf("Lines cleared: %d (%.2f per game)%n", results.lines, (double) results.lines / Math.max(1, scores.length));
+        if(scores.length > 0){
+            System.out.printf("Score min: %d, p50: %d, p90: %d, p99: %d, max: %d, mean: %.1f%n",
+                    scores[0], percentile(scores, 50), percentile(scores, 90), percentile(scores, 99), scores[scores.length - 1], mean);
+        }
+    }
+
+    static int percentile(int[] sorted, int percent){
+        return sorted[Math.min(sorted.length - 1, sorted.length * percent / 100)];
+    }
+
+    public static void main(String[] args) {        // usage: Simulation [games] [policy] [max pieces per game] [threads] [seed] [rows] [columns]
+        int games = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        String policy = args.length > 1 ? args[1] : "random";
+        int maxPieces = args.length > 2 ? Integer.parseInt(args[2]) : 10_000;
+        int threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+        long seed = args.length > 4 ? Long.parseLong(args[4]) : System.nanoTime();
+        int rows = args.length > 5 ? Integer.parseInt(args[5]) : Engine.DEFAULT_ROWS;
+        int columns = args.length > 6 ? Integer.parseInt(args[6]) : Engine.DEFAULT_COLUMNS;
+
+        long start = System.nanoTime();
+        Results results = run(games, threads, policy, maxPieces, seed, rows, columns);
+        printReport(results, System.nanoTime() - start);
+    }
+}
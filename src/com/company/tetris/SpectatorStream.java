@@ -0,0 +1,242 @@
+/*
+        Project title: Tetris
+        Author: Jakub Sobczyński
+        GitHub: https://github.com/J-Sob
+ */
+
+package com.company.tetris;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+public class SpectatorStream {      // broadcasts one game to many spectators over TCP, see Protocol
+
+    /*
+        Every engine tick that changed something becomes a frame: STATE messages with the rows that differ from the stack
+        as spectators last got it, or every KEYFRAME_INTERVAL frames a keyframe with the whole stack. A frame is encoded once
+        into a direct buffer of a ring and written from there to every spectator, each of them only remembers how far into
+        the ring it got. Spectators that fall a whole ring behind skip ahead to the latest keyframe, or are dropped
+        when they stopped in the middle of a frame that is being overwritten.
+        Everything runs on the thread that ticks the engine, GameLoop calls publish() after every tick. Changed rows are found
+        by comparing with a copy of the stack, so the stream does not depend on dirty rows the renderer clears.
+     */
+    static final int RING_SIZE = 256;       // frames kept for spectators that are behind, a power of two
+    static final int KEYFRAME_INTERVAL = 64;
+    static final int KEYFRAMES = RING_SIZE / KEYFRAME_INTERVAL;         // keyframe buffers, reused in turn
+    static final int MAX_DELTA_ROWS = 256;      // frames changing more rows are sent as keyframes, so delta buffers stay small
+
+    static class Frame {        // one slot of the ring
+        ByteBuffer delta = ByteBuffer.allocateDirect(1024);         // owned by the slot, grown when a frame does not fit
+        ByteBuffer data;        // bytes of the frame, the delta buffer or one of the keyframe buffers
+    }
+
+    static class Spectator {
+        final SocketChannel channel;
+        long sequence;      // next frame to write
+        int offset;         // bytes of that frame already written
+
+        Spectator(SocketChannel channel, long sequence) {
+            this.channel = channel;
+            this.sequence = sequence;
+        }
+    }
+
+    final Engine engine;
+    final ServerSocketChannel server;
+    final Frame[] ring = new Frame[RING_SIZE];
+    final ByteBuffer[] keyframes = new ByteBuffer[KEYFRAMES];
+    final long[] keyframeSequence = new long[KEYFRAMES];        // frame stored in each keyframe buffer, -1 when unused
+    final ArrayList<Spectator> spectators = new ArrayList<>();
+    final int[] rows;       // indices of rows going into the frame being encoded
+    final long[] sent;      // stack as of the last frame, same layout as Engine.gameBoard
+    int sentTop;        // stack top of the last frame, rows above it are empty in sent
+    long published;         // frames published so far, also the number of the next one
+    long lastKeyframe = -1;
+    int keyframeCount;
+    int publishedVersion = -1;
+    boolean gameOverSent;
+    long skipped;       // spectators moved to a keyframe because they fell behind
+    long dropped;       // spectators disconnected because they fell behind
+
+    public SpectatorStream(Engine engine, int port) throws IOException {         // listening on localhost
+        this.engine = engine;
+        this.rows = new int[engine.getBoardRows()];
+        this.sent = new long[engine.gameBoard.length];
+        this.sentTop = engine.getBoardRows();
+        for(int i = 0; i < RING_SIZE; i++){
+            ring[i] = new Frame();
+        }
+        Arrays.fill(keyframeSequence, -1);
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress("localhost", port));
+        server.configureBlocking(false);
+    }
+
+    public void publish(){      // after a tick: accepting spectators, encoding a frame when the engine changed and writing what each spectator can take
+        try {
+            SocketChannel channel;
+            while((channel = server.accept()) != null){
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                spectators.add(new Spectator(channel, lastKeyframe >= 0 ? lastKeyframe : published));
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        if(engine.getVersion() != publishedVersion){
+            publishFrame();
+        }
+        for(int i = spectators.size() - 1; i >= 0; i--){
+            if(!send(spectators.get(i))){
+                remove(i);
+            }
+        }
+    }
+
+    void publishFrame(){
+        long sequence = published;
+        int count = changedRows();
+        boolean keyframe = lastKeyframe < 0 || sequence - lastKeyframe >= KEYFRAME_INTERVAL || count > MAX_DELTA_ROWS;
+        long oldest = sequence - RING_SIZE + 1;         // first frame that stays in the ring
+        ByteBuffer buffer;
+        byte type = Protocol.STATE;
+        if(keyframe){
+            count = 0;
+            for(int row = engine.stackTop; row < engine.getBoardRows(); row++){
+                rows[count++] = row;
+            }
+            int slot = keyframeCount % KEYFRAMES;
+            oldest = Math.max(oldest, keyframeSequence[slot] + 1);
+            int size = Protocol.HEADER_SIZE + Protocol.WELCOME_SIZE + Protocol.statesSize(engine, count) + Protocol.HEADER_SIZE + Protocol.GAME_OVER_SIZE;
+            if(keyframes[slot] == null || keyframes[slot].capacity() < size){
+                keyframes[slot] = ByteBuffer.allocateDirect(Math.max(size, 1024));
+            }
+            buffer = keyframes[slot];
+            keyframeSequence[slot] = sequence;
+            keyframeCount++;
+            type = Protocol.KEYFRAME;
+        }else{
+            Frame frame = ring[(int) (sequence & (RING_SIZE - 1))];
+            int size = Protocol.statesSize(engine, count) + Protocol.HEADER_SIZE + Protocol.GAME_OVER_SIZE;
+            if(frame.delta.capacity() < size){
+                frame.delta = ByteBuffer.allocateDirect(Math.max(size, frame.delta.capacity() * 2));
+            }
+            buffer = frame.delta;
+        }
+        skipBehind(oldest, keyframe ? sequence : lastKeyframe);
+        buffer.clear();
+        if(keyframe){
+            Protocol.putWelcome(buffer, 0, engine.getBoardRows(), engine.getBoardColumns());
+        }
+        Protocol.putStates(buffer, type, engine, (int) sequence, rows, count);
+        if(engine.isGameOver() && !gameOverSent){
+            Protocol.putGameOver(buffer, engine);
+        }
+        gameOverSent = engine.isGameOver();
+        buffer.flip();
+        ring[(int) (sequence & (RING_SIZE - 1))].data = buffer;
+        if(keyframe){
+            lastKeyframe = sequence;
+            System.arraycopy(engine.gameBoard, 0, sent, 0, sent.length);
+        }
+        sentTop = engine.stackTop;
+        publishedVersion = engine.getVersion();
+        published++;
+    }
+
+    int changedRows(){      // rows that differ from sent, copied into it, more than MAX_DELTA_ROWS stops the search for a keyframe
+        long[] board = engine.gameBoard;
+        int words = engine.words;
+        int count = 0;
+        for(int row = Math.min(sentTop, engine.stackTop); row < engine.getBoardRows(); row++){
+            int base = row * words;
+            if(!Arrays.equals(board, base, base + words, sent, base, base + words)){
+                if(count == MAX_DELTA_ROWS){
+                    return count + 1;
+                }
+                System.arraycopy(board, base, sent, base, words);
+                rows[count++] = row;
+            }
+        }
+        return count;
+    }
+
+    void skipBehind(long oldest, long keyframe){        // spectators still needing frames that are about to be overwritten
+        for(int i = spectators.size() - 1; i >= 0; i--){
+            Spectator spectator = spectators.get(i);
+            if(spectator.sequence >= oldest){
+                continue;
+            }
+            if(spectator.offset > 0){       // half of a frame was written, the stream cannot continue anywhere else
+                remove(i);
+                dropped++;
+            }else{
+                spectator.sequence = keyframe;
+                skipped++;
+            }
+        }
+    }
+
+    boolean send(Spectator spectator){      // false when the spectator went away
+        try {
+            while(spectator.sequence < published){
+                ByteBuffer data = ring[(int) (spectator.sequence & (RING_SIZE - 1))].data;
+                data.position(spectator.offset);
+                spectator.channel.write(data);
+                if(data.hasRemaining()){
+                    spectator.offset = data.position();
+                    return true;
+                }
+                spectator.sequence++;
+                spectator.offset = 0;
+            }
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    void remove(int index){
+        Spectator spectator = spectators.get(index);
+        spectators.set(index, spectators.get(spectators.size() - 1));
+        spectators.remove(spectators.size() - 1);
+        try {
+            spectator.channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public void close(){
+        for(int i = spectators.size() - 1; i >= 0; i--){
+            remove(i);
+        }
+        try {
+            server.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public int getSpectators() {
+        return spectators.size();
+    }
+
+    public long getPublished() {
+        return published;
+    }
+
+    public long getSkipped() {
+        return skipped;
+    }
+
+    public long getDropped() {
+        return dropped;
+    }
+}
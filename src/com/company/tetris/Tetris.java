@@ -17,61 +17,166 @@ import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.control.Button;
 import javafx.scene.control.Label;
 import javafx.scene.control.TextField;
+import javafx.scene.image.ImageView;
+import javafx.scene.input.KeyCode;
 import javafx.scene.input.KeyEvent;
 import javafx.scene.layout.*;
 import javafx.scene.paint.Color;
 import javafx.scene.text.Font;
+import javafx.scene.text.Text;
 import javafx.stage.Stage;
 
 import java.io.IOException;
-
-public class Tetris extends Application {       // class containing game loop and displaying game on screen
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+
+public class Tetris extends Application implements EngineListener {       // class containing game loop and displaying game on screen
+    static final double SCENE_HEIGHT = 500;
+    static final double SIDEBAR_WIDTH = 250;        // next block and score, right of the board
+    static final double MAX_BOARD_WIDTH = 1024;
+    static final double MAX_TILE = 25;
+    static final double MIN_TILE = 2;       // below this tiles stop shrinking and the board scrolls instead
+    static final double MIN_GRID_TILE = 6;      // smaller tiles are drawn without grid lines
+    static final double PREVIEW_TILE = 25;
+    static final int OVERLAY_FRAMES = 30;       // debug overlay text is refreshed this often
+    static final String FONT = "file:src/resources/Bubblegum.ttf";
+    static final String CHECKPOINT_FILE = "checkpoint-%dx%d.bin";       // one file per board size, rows and columns
     Engine gameEngine;
+    GameLoop gameLoop;
+    ReplayRecorder replayRecorder;      // records the current game into the replays directory
+    ScoreStore scoreStore;
+    SpectatorStream spectatorStream;        // broadcast of the game, only when started with --spectator-port=N
+    Checkpoint checkpoint;      // state of the game after every lock, an interrupted game continues from it on the next start
+    final Metrics metrics = new Metrics(false);         // enabled with --metrics, F3 or over JMX
+    Text debugOverlay;      // metrics on screen, toggled with F3
+    long overlayFrames;
     Group root;
     Scene scene;
     Canvas stackLayer;
+    Canvas ghostLayer;      // landing preview of the falling piece, between the stack and the piece
     Canvas dynamicElementsLayer;
     Canvas grid;
+    PixelRenderer pixelRenderer;        // draws the board into one image instead of the canvases above, only with --renderer=pixels
+    ImageView boardView;
     GraphicsContext gcStack;
+    GraphicsContext gcGhost;
     GraphicsContext gcDynamicElems;
     GraphicsContext gcGrid;
+    Font font;      // loaded once for every text of the game
+    Text scoreText;         // texts are nodes cached as bitmaps, rasterized again only when they change
+    Text levelText;
+    Text gameOverText;
     double tileWidth;
     double tileHeight;
+    double boardWidth;
+    int visibleRows;        // rows that fit on screen, the viewport follows the falling piece when the board is taller
+    int viewTop;        // first board row on screen
     final Color fallingPiece = Color.rgb(0, 163, 14);
     final Color stackPiece = Color.rgb(0, 50, 163);
     final Color background = Color.rgb(224, 224, 224);
-
-    public Tetris(){        // preparing scene to display game
+    final Color ghostPiece = Color.rgb(0, 163, 14, 0.3);
+    int drawnVersion = -1;      // engine version shown on screen, frames are skipped while it matches
+    double drawnRow;       // position of the falling piece as it was drawn, its cells are cleared before drawing the new ones
+    int drawnColumn;
+    int drawnOrientation = -1;
+    int ghostRow;       // position of the ghost as it was drawn
+    int ghostColumn;
+    int ghostOrientation = -1;
+    boolean scoreChanged;       // set by engine events, cleared when the change is drawn
+    boolean upcomingChanged;
+    boolean levelChanged;
+    boolean gameOverChanged;
+
+    void createScene(int rows, int columns, boolean pixels){        // preparing scene to display game, tiles shrink to fit the board into the window
+        gameEngine = new Engine(rows, columns, System.nanoTime(), false, 1);
+        gameEngine.addListener(this);
+        gameEngine.metrics = metrics;
+        gameLoop = new GameLoop(gameEngine);
+        gameLoop.setMetrics(metrics);
+        this.tileWidth = Math.max(MIN_TILE, Math.min(MAX_TILE, Math.min(SCENE_HEIGHT / rows, MAX_BOARD_WIDTH / columns)));
+        if(pixels){
+            this.tileWidth = Math.floor(tileWidth);         // sprites need whole pixels
+        }
+        this.tileHeight = this.tileWidth;
+        this.boardWidth = columns * tileWidth;
+        this.visibleRows = Math.min(rows, (int) (SCENE_HEIGHT / tileHeight));
+        this.viewTop = 0;
         root = new Group();
-        scene = new Scene(root,500,500);
-        stackLayer = new Canvas(scene.getWidth() / 2,scene.getHeight());
+        scene = new Scene(root, boardWidth + SIDEBAR_WIDTH, SCENE_HEIGHT);
         dynamicElementsLayer = new Canvas(scene.getWidth(), scene.getHeight());
-        grid = new Canvas(scene.getWidth() / 2, scene.getHeight());
-        root.getChildren().add(stackLayer);
-        root.getChildren().add(dynamicElementsLayer);
-        root.getChildren().add(grid);
-        gcStack = stackLayer.getGraphicsContext2D();
+        if(pixels){
+            pixelRenderer = new PixelRenderer(columns, visibleRows, (int) tileWidth, tileWidth >= MIN_GRID_TILE, background, stackPiece, fallingPiece, ghostPiece);
+            boardView = new ImageView(pixelRenderer.createImage());
+            root.getChildren().add(boardView);
+            root.getChildren().add(dynamicElementsLayer);
+        }else{
+            stackLayer = new Canvas(boardWidth, scene.getHeight());
+            ghostLayer = new Canvas(boardWidth, scene.getHeight());
+            grid = new Canvas(boardWidth, scene.getHeight());
+            root.getChildren().add(stackLayer);
+            root.getChildren().add(ghostLayer);
+            root.getChildren().add(dynamicElementsLayer);
+            root.getChildren().add(grid);
+            gcStack = stackLayer.getGraphicsContext2D();
+            gcGhost = ghostLayer.getGraphicsContext2D();
+            gcGrid = grid.getGraphicsContext2D();
+        }
+        font = Font.loadFont(FONT, 30);
+        if(font == null){
+            font = Font.font(30);
+        }
+        root.getChildren().add(createText("Next block: ", scene.getHeight() * 0.08));
+        root.getChildren().add(createText("Score:", scene.getHeight() * 0.3));
+        scoreText = createText("", scene.getHeight() * 0.38);
+        levelText = createText("", scene.getHeight() * 0.47);
+        gameOverText = createText("Game over!", scene.getHeight() * 0.57);
+        gameOverText.setVisible(false);
+        root.getChildren().add(scoreText);
+        root.getChildren().add(levelText);
+        root.getChildren().add(gameOverText);
+        debugOverlay = new Text(sidebarX(0.05), SCENE_HEIGHT * 0.7, "");
+        debugOverlay.setFont(Font.font("Monospaced", 11));
+        debugOverlay.setVisible(false);
+        root.getChildren().add(debugOverlay);
         gcDynamicElems = dynamicElementsLayer.getGraphicsContext2D();
-        gcGrid = grid.getGraphicsContext2D();
-        gameEngine = new Engine();
-        this.tileWidth = scene.getWidth() / gameEngine.getBoardRows();      // tile size depends on window size
-        this.tileHeight = this.tileWidth;
     }
 
+    Text createText(String text, double y){         // outlined sidebar text
+        Text node = new Text(sidebarX(0.2), y, text);
+        node.setFont(font);
+        node.setFill(null);
+        node.setStroke(Color.BLACK);
+        node.setCache(true);
+        return node;
+    }
+
+    double sidebarX(double part){        // horizontal position in the sidebar as a part of its width
+        return boardWidth + SIDEBAR_WIDTH * part;
+    }
 
-    void playTetris(){      // main loop made with JavaFX AnimationTimer
+
+    void playTetris(){      // JavaFX AnimationTimer only draws frames, game loop decides how many ticks of the game have passed
         new AnimationTimer(){
-            long update = 0;
             @Override
             public void handle(long now) {
-                scene.setOnKeyPressed(keyEvent -> keyboardInput(keyEvent));
-                if(!gameEngine.isGameOver() && now - update >= 600_000_000){    // calculating if 0.6 second has passed to move a piece down
-                    gameEngine.lowerTetromino();
-                    update = now;
+                long start = metrics.start();
+                long allocated = metrics.allocatedBytes();
+                double alpha = gameLoop.advance(now);
+                long renderStart = metrics.start();
+                draw(alpha);
+                if(start != 0){
+                    metrics.record(metrics.render, renderStart);
+                    metrics.record(metrics.frame, start);
+                    metrics.recordAllocation(allocated);
+                    metrics.frameShown(System.nanoTime());
+                }
+                if(debugOverlay.isVisible() && ++overlayFrames % OVERLAY_FRAMES == 0){
+                    debugOverlay.setText(metrics.getSummary());
                 }
-                gameEngine.checkBoard();
-                draw();
-                if(gameEngine.isGameOver()){
+                if(gameOverChanged){
+                    finishReplay();
                     gameOverWindow(this);
                     this.stop();
                 }
@@ -80,62 +185,207 @@ public class Tetris extends Application {       // class containing game loop an
     }
 
     void clearCanvas(){     // clearing canvas before drawing on it
-        gcStack.clearRect(0,0, stackLayer.getWidth(), stackLayer.getHeight());
+        if(pixelRenderer == null){
+            gcStack.clearRect(0,0, stackLayer.getWidth(), stackLayer.getHeight());
+            gcGhost.clearRect(0,0, ghostLayer.getWidth(), ghostLayer.getHeight());
+        }
         gcDynamicElems.clearRect(0,0, dynamicElementsLayer.getWidth(), dynamicElementsLayer.getHeight());
     }
 
-    void draw(){        // draws game along with gui on screen
+    void redrawAll(){       // forgetting what is on screen so the next frame paints everything
         clearCanvas();
-        drawStack();
-        drawDynamicElements();
+        gameEngine.markDirty(0, gameEngine.getBoardRows() - 1);
+        drawnVersion = -1;
+        drawnOrientation = -1;
+        ghostOrientation = -1;
+        scoreChanged = true;
+        upcomingChanged = true;
+        levelChanged = true;
+        gameOverChanged = false;
+        gameOverText.setVisible(false);
     }
 
-    void drawStack(){       // draws only fallen static pieces and background
-        for(int i = 0; i < gameEngine.getBoardRows(); i++){
-            for(int j = 0; j < gameEngine.getBoardColumns(); j++){
-                if(gameEngine.getTileStatus(i, j)){
-                    gcStack.setFill(stackPiece);
-                }else{
-                    gcStack.setFill(background);
-                }
-                gcStack.fillRect(j * tileWidth,i * tileHeight, tileWidth, tileHeight);
+    void draw(double alpha){        // draws only what changed since previous frame, nothing at all when engine did not change
+        double row = gameEngine.tetro.getRowPos();
+        if(!gameEngine.isGameOver() && !gameEngine.isLanded()){      // falling piece slides smoothly between ticks, never below where it lands
+            row += Math.min(gameEngine.landingRow() - row, gameEngine.getFallProgress() + alpha * gameEngine.getGravity());
+        }
+        if(gameEngine.getVersion() == drawnVersion && row == drawnRow){
+            return;
+        }
+        drawnVersion = gameEngine.getVersion();
+        scrollTo(gameEngine.tetro.getRowPos());
+        if(pixelRenderer != null){
+            pixelRenderer.render(gameEngine, viewTop, row);
+            gameEngine.clearDirtyRows();
+        }else{
+            drawStack();
+            drawGhost();
+            drawFallingPiece(row);
+        }
+        drawSidebar();
+    }
+
+    void scrollTo(int pieceRow){        // moving the viewport of a tall board when the piece gets close to its edge
+        int margin = Math.min(4, visibleRows / 4);
+        int lastTop = gameEngine.getBoardRows() - visibleRows;
+        boolean tooHigh = pieceRow < viewTop + margin && viewTop > 0;
+        boolean tooLow = pieceRow + 4 > viewTop + visibleRows - margin && viewTop < lastTop;
+        if(!tooHigh && !tooLow){
+            return;
+        }
+        viewTop = Math.max(0, Math.min(lastTop, pieceRow - visibleRows / 3));
+        gcDynamicElems.clearRect(0, 0, boardWidth, scene.getHeight());
+        if(gcGhost != null){
+            gcGhost.clearRect(0, 0, boardWidth, scene.getHeight());
+        }
+        drawnOrientation = -1;
+        ghostOrientation = -1;
+        gameEngine.markDirty(viewTop, viewTop + visibleRows - 1);
+    }
+
+    void drawStack(){       // draws only fallen static pieces and background in visible rows that changed
+        int lastRow = viewTop + visibleRows - 1;
+        for(int i = gameEngine.nextDirtyRow(viewTop); i >= 0 && i <= lastRow; i = gameEngine.nextDirtyRow(i + 1)){
+            drawRow(i);
+        }
+        gameEngine.clearDirtyRows();        // rows off screen are repainted when the viewport moves to them
+    }
+
+    void drawRow(int i){        // background, then every run of filled tiles as one rectangle
+        int columns = gameEngine.getBoardColumns();
+        double y = (i - viewTop) * tileHeight;
+        gcStack.setFill(background);
+        gcStack.fillRect(0, y, boardWidth, tileHeight);
+        gcStack.setFill(stackPiece);
+        int j = gameEngine.nextTile(i, 0, true);
+        while(j < columns){
+            int end = gameEngine.nextTile(i, j, false);
+            gcStack.fillRect(j * tileWidth, y, (end - j) * tileWidth, tileHeight);
+            j = end < columns ? gameEngine.nextTile(i, end, true) : columns;
+        }
+    }
+
+    void drawGhost(){       // where the piece would land, redrawn only when the piece or the stack under it moved
+        int orientation = gameEngine.isGameOver() ? -1 : gameEngine.tetro.orientation;
+        int row = orientation < 0 ? 0 : gameEngine.landingRow();
+        int column = gameEngine.tetro.getColumnPos();
+        if(orientation == ghostOrientation && row == ghostRow && column == ghostColumn){
+            return;
+        }
+        if(ghostOrientation >= 0){
+            clearPiece(gcGhost, ghostOrientation, ghostRow, ghostColumn);
+        }
+        if(orientation >= 0){
+            gcGhost.setFill(ghostPiece);
+            fillPiece(gcGhost, orientation, row, column);
+        }
+        ghostOrientation = orientation;
+        ghostRow = row;
+        ghostColumn = column;
+    }
+
+    void fillPiece(GraphicsContext gc, int orientation, double row, int column){        // cells of a piece with its box at given board position
+        for(int i = 0; i < 4; i++){
+            int cells = RotationTable.rowMask(orientation, i);
+            while(cells != 0){
+                int j = Integer.numberOfTrailingZeros(cells);
+                cells &= cells - 1;
+                gc.fillRect((column + j) * tileWidth, (row - viewTop + i) * tileHeight, tileWidth, tileHeight);
             }
         }
     }
 
-    void drawDynamicElements(){     // draws all elements that change during game along with Labels
-        // drawing falling tiles
+    void clearPiece(GraphicsContext gc, int orientation, double row, int column){       // with a pixel more above and below for edges of interpolated rows
         for(int i = 0; i < 4; i++){
-            for(int j = 0; j < 4; j++){
-                if(gameEngine.tetro.getTetroPosition(i,j)){
-                    int realColumnPos = gameEngine.tetro.getColumnPos() + j;
-                    int realRowPos = gameEngine.tetro.getRowPos() + i;
-                    gcDynamicElems.setFill(fallingPiece);
-                    gcDynamicElems.fillRect(realColumnPos * tileWidth,realRowPos * tileHeight, tileWidth, tileHeight);
-                }
-                // drawing upcoming tile
-                if(gameEngine.upcomingTetro.getTetroPosition(i,j)){
-                    gcDynamicElems.setFill(fallingPiece);
-                    gcDynamicElems.fillRect(j * tileWidth + (scene.getWidth() * 0.65), tileHeight * i + (scene.getHeight() * 0.1), tileWidth, tileHeight);
+            int cells = RotationTable.rowMask(orientation, i);
+            while(cells != 0){
+                int j = Integer.numberOfTrailingZeros(cells);
+                cells &= cells - 1;
+                gc.clearRect((column + j) * tileWidth, (row - viewTop + i) * tileHeight - 1, tileWidth, tileHeight + 2);
+            }
+        }
+    }
+
+    void drawFallingPiece(double row){      // falling piece at given interpolated row
+        // clearing falling tiles where they were drawn last time
+        if(drawnOrientation >= 0){
+            clearPiece(gcDynamicElems, drawnOrientation, drawnRow, drawnColumn);
+        }
+        // drawing falling tiles
+        gcDynamicElems.setFill(fallingPiece);
+        fillPiece(gcDynamicElems, gameEngine.tetro.orientation, row, gameEngine.tetro.getColumnPos());
+        drawnRow = row;
+        drawnColumn = gameEngine.tetro.getColumnPos();
+        drawnOrientation = gameEngine.tetro.orientation;
+    }
+
+    void drawSidebar(){         // elements right of the board, each only when it changed
+        // drawing upcoming tile
+        if(upcomingChanged){
+            upcomingChanged = false;
+            gcDynamicElems.clearRect(sidebarX(0.3), scene.getHeight() * 0.1, PREVIEW_TILE * 4, PREVIEW_TILE * 4);
+            gcDynamicElems.setFill(fallingPiece);
+            for(int i = 0; i < 4; i++){
+                for(int j = 0; j < 4; j++){
+                    if(gameEngine.getUpcomingTileStatus(0, i, j)){
+                        gcDynamicElems.fillRect(j * PREVIEW_TILE + sidebarX(0.3), PREVIEW_TILE * i + (scene.getHeight() * 0.1), PREVIEW_TILE, PREVIEW_TILE);
+                    }
                 }
             }
         }
-        // Text //
-        gcDynamicElems.setFont(Font.loadFont("file:src/resources/Bubblegum.ttf", 30));
-        // Upcoming tile label
-        gcDynamicElems.strokeText("Next block: ",scene.getWidth() * 0.6, scene.getHeight() * 0.08);
         // Score
-        gcDynamicElems.strokeText("Score:",scene.getWidth() * 0.6, scene.getHeight() * 0.3);
-        gcDynamicElems.strokeText(String.valueOf(gameEngine.getScore()),scene.getWidth() * 0.6, scene.getHeight() * 0.38);
+        if(scoreChanged){
+            scoreChanged = false;
+            scoreText.setText(String.valueOf(gameEngine.getScore()));
+        }
+        if(levelChanged){
+            levelChanged = false;
+            levelText.setText("Level: " + gameEngine.getLevel());
+            levelText.setVisible(gameEngine.getLevel() > 0);
+        }
         //Game Over
-        if(gameEngine.isGameOver()){
-            gcDynamicElems.strokeText("Game over!",scene.getWidth() * 0.6, scene.getHeight() * 0.5);
+        if(gameOverChanged){
+            gameOverText.setVisible(true);
         }
     }
 
+    @Override
+    public void scoreChanged(int score) {
+        scoreChanged = true;
+    }
 
+    @Override
+    public void nextPieceChanged(Engine.Shape shape) {
+        upcomingChanged = true;
+    }
 
-    void drawGrid(){        // drawing grid over game board
+    @Override
+    public void levelChanged(int level) {
+        levelChanged = true;
+    }
+
+    @Override
+    public void pieceLocked(Engine.Shape shape, int rotation, int row, int column) {
+        if(checkpoint != null){
+            checkpoint.save(gameEngine.snapshot());
+        }
+    }
+
+    @Override
+    public void gameOver(int score) {
+        gameOverChanged = true;
+        if(checkpoint != null){
+            checkpoint.save(gameEngine.snapshot());         // a finished game is not resumed
+        }
+    }
+
+
+
+    void drawGrid(){        // drawing grid over game board, small tiles are left without it, the pixel renderer has it in its sprites
+        if(tileWidth < MIN_GRID_TILE || pixelRenderer != null){
+            return;
+        }
         gcGrid.setLineWidth(1.0);
         gcGrid.setFill(Color.BLACK);
         for(int i = 0; i < gameEngine.getBoardColumns(); i++){
@@ -144,28 +394,44 @@ public class Tetris extends Application {       // class containing game loop an
             gcGrid.stroke();
         }
 
-        for(int i = 0; i < gameEngine.getBoardRows(); i++){
+        for(int i = 0; i < visibleRows; i++){
             gcGrid.moveTo(0, i * tileHeight);
             gcGrid.lineTo(grid.getWidth(),i * tileHeight);
             gcGrid.stroke();
         }
     }
 
-    void keyboardInput(KeyEvent key){       // menaging user input
-        if(!gameEngine.isGameOver()){
-            switch(key.getCode()){
-                case RIGHT -> gameEngine.moveTetromino(Engine.Direction.RIGHT);
-                case LEFT -> gameEngine.moveTetromino(Engine.Direction.LEFT);
-                case DOWN -> gameEngine.moveTetromino(Engine.Direction.DOWN);
-                case UP -> gameEngine.rotateTetromino();
+    void keyboardInput(KeyEvent key, boolean pressed){       // menaging user input, presses and releases are queued with their time and applied on the next tick
+        long now = System.nanoTime();
+        Engine.Input input = switch(key.getCode()){
+            case RIGHT -> Engine.Input.RIGHT;
+            case LEFT -> Engine.Input.LEFT;
+            case DOWN -> Engine.Input.SOFT_DROP;
+            case UP -> Engine.Input.ROTATE;
+            case SPACE -> Engine.Input.HARD_DROP;
+            default -> null;
+        };
+        if(input != null){
+            if(pressed){
+                gameLoop.press(input, now);
+            }else{
+                gameLoop.release(input, now);
             }
+        }else if(pressed && key.getCode() == KeyCode.F3){
+            toggleDebugOverlay();
+        }
+    }
+
+    void toggleDebugOverlay(){      // showing the overlay also starts measuring
+        debugOverlay.setVisible(!debugOverlay.isVisible());
+        if(debugOverlay.isVisible()){
+            metrics.setEnabled(true);
         }
     }
 
     void gameOverWindow(AnimationTimer timer){      // creating window popup after lost game
-        Font font = Font.loadFont("file:src/resources/Bubblegum.ttf",30);
         GridPane overRoot = new GridPane();
-        Scene overScene = new Scene(overRoot,300,200);
+        Scene overScene = new Scene(overRoot,300,260);
         Stage overStage = new Stage();
         overRoot.getColumnConstraints().add(new ColumnConstraints(50));
         overRoot.getColumnConstraints().add(new ColumnConstraints(200));
@@ -181,6 +447,8 @@ public class Tetris extends Application {       // class containing game loop an
         nickname.setAlignment(Pos.CENTER);
         overRoot.add(nickname,1,2);
 
+        Label rankLabel = new Label(rankText(gameEngine.getScore(), false));
+        overRoot.add(rankLabel,1,4);
 
         GridPane buttonsGrid = new GridPane();
         buttonsGrid.setHgap(30);
@@ -189,10 +457,11 @@ public class Tetris extends Application {       // class containing game loop an
         buttonsGrid.add(save,0,1);
 
         save.setOnAction(actionEvent -> {
-            try {
-                gameEngine.saveScore(nickname.getText());
-            } catch (IOException e) {
-                e.printStackTrace();
+            if(scoreStore != null){
+                scoreStore.submit(nickname.getText(), gameEngine.getScore(), replayRecorder != null ? replayRecorder.getPath().toString() : null);
+                ScoreStore.Entry best = scoreStore.best(nickname.getText());
+                rankLabel.setText(rankText(gameEngine.getScore(), true) + "\nYour best: " + best.getScore());
+                save.setDisable(true);
             }
         });
 
@@ -202,6 +471,9 @@ public class Tetris extends Application {       // class containing game loop an
 
         restart.setOnAction(actionEvent -> {
             gameEngine.restartGame();
+            gameLoop.reset();
+            startReplay();
+            redrawAll();
             timer.start();
             overStage.close();
         });
@@ -216,17 +488,114 @@ public class Tetris extends Application {       // class containing game loop an
 
     }
 
+    String rankText(int score, boolean saved){         // place of the score among all saved ones
+        if(scoreStore == null){
+            return "";
+        }
+        int total = saved ? scoreStore.size() : scoreStore.size() + 1;
+        return String.format("Rank: %d of %d (better than %.0f%%)", scoreStore.rank(score), total, scoreStore.percentile(score));
+    }
+
+    boolean resumeGame(){       // continuing the game that was running when the program last stopped
+        try {
+            checkpoint = new Checkpoint(Paths.get(String.format(CHECKPOINT_FILE, gameEngine.getBoardRows(), gameEngine.getBoardColumns())), gameEngine);
+        } catch (IOException e) {       // also a file written for another board, it is left as it is
+            e.printStackTrace();
+            return false;
+        }
+        GameState state = checkpoint.load();
+        if(state == null || state.isGameOver()){
+            return false;
+        }
+        try {
+            gameEngine.restore(state);
+        } catch (IllegalArgumentException e) {      // the header matched but the state did not, a new game starts
+            e.printStackTrace();
+            return false;
+        }
+        return true;
+    }
+
+    void startReplay(){         // every game is recorded so a saved score can be verified later
+        try {
+            Path directory = Paths.get("replays");
+            Files.createDirectories(directory);
+            replayRecorder = new ReplayRecorder(directory.resolve(System.currentTimeMillis() + ".replay"), gameEngine);
+        } catch (IOException e) {
+            replayRecorder = null;
+            e.printStackTrace();
+        }
+        gameLoop.setRecorder(replayRecorder);
+    }
+
+    void finishReplay(){
+        if(replayRecorder != null){
+            try {
+                replayRecorder.finish(gameEngine);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    static long millisParameter(Map<String, String> parameters, String name, long defaultNanos){        // option given in milliseconds, returned in nanoseconds
+        return parameters.containsKey(name) ? (long) (Double.parseDouble(parameters.get(name)) * 1e6) : defaultNanos;
+    }
+
     @Override
-    public void start(Stage stage) throws Exception {
+    public void start(Stage stage) throws Exception {       // options: --rows=N --columns=N --spectator-port=N --metrics=true --renderer=pixels --level=N (0 for fixed gravity), key repeat and lock delay in ms --das=N --arr=N --soft-drop=N --lock-delay=N
+        Map<String, String> parameters = getParameters().getNamed();
+        createScene(Integer.parseInt(parameters.getOrDefault("rows", String.valueOf(Engine.DEFAULT_ROWS))),
+                Integer.parseInt(parameters.getOrDefault("columns", String.valueOf(Engine.DEFAULT_COLUMNS))),
+                "pixels".equals(parameters.get("renderer")));
         stage.setTitle("Tetris");
         stage.setResizable(false);
         stage.setScene(this.scene);
 
+        try {
+            scoreStore = ScoreStore.open(Paths.get("."));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        gameLoop.setHandling(millisParameter(parameters, "das", GameLoop.DEFAULT_DAS_NANOS),
+                millisParameter(parameters, "arr", GameLoop.DEFAULT_ARR_NANOS),
+                millisParameter(parameters, "soft-drop", GameLoop.DEFAULT_SOFT_DROP_NANOS));
+        gameEngine.setStartLevel(Integer.parseInt(parameters.getOrDefault("level", "1")));
+        if(gameEngine.getStartLevel() > 0){
+            gameEngine.setLockDelay((int) (millisParameter(parameters, "lock-delay", Engine.DEFAULT_LOCK_DELAY * GameLoop.TICK_NANOS) / GameLoop.TICK_NANOS), Engine.DEFAULT_LOCK_RESETS);
+        }
+        metrics.setEnabled(Boolean.parseBoolean(parameters.getOrDefault("metrics", "false")));
+        metrics.register();
+        if(parameters.containsKey("spectator-port")){
+            spectatorStream = new SpectatorStream(gameEngine, Integer.parseInt(parameters.get("spectator-port")));
+            gameLoop.setSpectatorStream(spectatorStream);
+        }
+        scene.setOnKeyPressed(keyEvent -> keyboardInput(keyEvent, true));
+        scene.setOnKeyReleased(keyEvent -> keyboardInput(keyEvent, false));
+        boolean resumed = resumeGame();
         drawGrid();
+        redrawAll();
+        if(!resumed){       // a resumed game has no replay, its recording would not start at the beginning
+            startReplay();
+        }
         playTetris();
         stage.show();
     }
 
+    @Override
+    public void stop() throws Exception {       // writing scores that are still waiting for a commit
+        if(scoreStore != null){
+            scoreStore.close();
+        }
+        if(spectatorStream != null){
+            spectatorStream.close();
+        }
+        if(checkpoint != null){
+            checkpoint.save(gameEngine.snapshot());
+            checkpoint.close();
+        }
+    }
+
     public static void main(String[] args) {
         launch(args);
     }
@@ -0,0 +1,88 @@
+/*
+        Project title: Tetris
+        Author: Jakub Sobczyński
+        GitHub: https://github.com/J-Sob
+ */
+
+package com.company.tetris;
+
+final class TimerWheel {        // hashed wheel of timers for one thread, scheduling and firing a timer allocates nothing
+
+    abstract static class Timer {       // linked into the wheel slot of its deadline
+        long deadline;
+        Timer next;
+        boolean scheduled;
+
+        abstract void expire(long now);         // called on the wheel's thread at or after the deadline
+    }
+
+    final long resolutionNanos;
+    final Timer[] slots;
+    final int mask;
+    long cursor;        // start of the slot that fires next, in units of resolution
+
+    TimerWheel(long resolutionNanos, int slotsLog2, long now){
+        this.resolutionNanos = resolutionNanos;
+        this.slots = new Timer[1 << slotsLog2];
+        this.mask = slots.length - 1;
+        this.cursor = now / resolutionNanos;
+    }
+
+    void schedule(Timer timer, long deadline){      // timer must not be scheduled already, deadlines in the past fire on the next advance
+        timer.deadline = deadline;
+        timer.scheduled = true;
+        int slot = (int) (Math.max(deadline / resolutionNanos, cursor) & mask);
+        timer.next = slots[slot];
+        slots[slot] = timer;
+    }
+
+    void cancel(Timer timer){
+        if(!timer.scheduled){
+            return;
+        }
+        int slot = (int) (Math.max(timer.deadline / resolutionNanos, cursor) & mask);
+        Timer previous = null;
+        for(Timer t = slots[slot]; t != null; previous = t, t = t.next){
+            if(t == timer){
+                if(previous == null){
+                    slots[slot] = t.next;
+                }else{
+                    previous.next = t.next;
+                }
+                break;
+            }
+        }
+        timer.next = null;
+        timer.scheduled = false;
+    }
+
+    int advance(long now){      // firing every timer due by now, timers further away than one turn of the wheel stay in their slot
+        int fired = 0;
+        long last = now / resolutionNanos;
+        while(cursor <= last){
+            int slot = (int) (cursor & mask);
+            Timer timer = slots[slot];
+            slots[slot] = null;
+            long slotEnd = (cursor + 1) * resolutionNanos;
+            cursor++;
+            while(timer != null){
+                Timer next = timer.next;
+                timer.next = null;
+                if(timer.deadline < slotEnd){
+                    timer.scheduled = false;
+                    timer.expire(now);
+                    fired++;
+                }else{      // due in a later turn of the wheel
+                    timer.next = slots[slot];
+                    slots[slot] = timer;
+                }
+                timer = next;
+            }
+        }
+        return fired;
+    }
+
+    long nextSlotNanos(){       // time when the next slot starts, for sleeping until then
+        return cursor * resolutionNanos;
+    }
+}
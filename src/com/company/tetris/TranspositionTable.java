@@ -0,0 +1,60 @@
+/*
+        Project title: Tetris
+        Author: Jakub Sobczyński
+        GitHub: https://github.com/J-Sob
+ */
+
+package com.company.tetris;
+
+import java.util.Arrays;
+
+final class TranspositionTable {        // fixed size cache of search results keyed by board hash, allocates nothing after construction
+
+    /*
+        Each slot is two longs, the entry packed as float value, byte generation and byte depth,
+        and the key xored with the entry. A slot torn by two threads writing at once fails the key check
+        and reads as a miss, so the table needs no locks.
+     */
+    final long[] slots;
+    final int mask;
+    int generation;         // entries from older searches are replaced first
+    long hits;
+    long misses;
+
+    TranspositionTable(int sizeLog2){
+        this.slots = new long[2 << sizeLog2];
+        this.mask = (1 << sizeLog2) - 1;
+    }
+
+    double probe(long key, int depth){      // stored value searched at least this deep, NaN when there is none
+        int index = (int) (key ^ key >>> 32) & mask;
+        long entry = slots[2 * index + 1];
+        if((slots[2 * index] ^ entry) != key || entry == 0 || (entry & 0xFF) < depth){
+            misses++;
+            return Double.NaN;
+        }
+        hits++;
+        return Float.intBitsToFloat((int) (entry >>> 32));
+    }
+
+    void store(long key, int depth, double value){      // keeping the deeper result unless the stored one is from an older search
+        int index = (int) (key ^ key >>> 32) & mask;
+        long stored = slots[2 * index + 1];
+        if(stored != 0 && (stored >>> 8 & 0xFF) == (generation & 0xFF) && (stored & 0xFF) > depth){
+            return;
+        }
+        long entry = (long) Float.floatToRawIntBits((float) value) << 32 | (generation & 0xFF) << 8 | depth & 0xFF;
+        slots[2 * index] = key ^ entry;
+        slots[2 * index + 1] = entry;
+    }
+
+    void nextGeneration(){      // called before each search
+        generation++;
+    }
+
+    void clear(){
+        Arrays.fill(slots, 0);
+        hits = 0;
+        misses = 0;
+    }
+}
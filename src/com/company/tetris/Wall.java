@@ -0,0 +1,360 @@
+/*
+        Project title: Tetris
+        Author: Jakub Sobczyński
+        GitHub: https://github.com/J-Sob
+ */
+
+package com.company.tetris;
+
+import javafx.animation.AnimationTimer;
+import javafx.application.Application;
+import javafx.geometry.Rectangle2D;
+import javafx.scene.Group;
+import javafx.scene.Scene;
+import javafx.scene.image.ImageView;
+import javafx.scene.image.PixelBuffer;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+import javafx.scene.paint.Color;
+import javafx.stage.Stage;
+import javafx.util.Callback;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+public class Wall extends Application {         // watch mode showing many bot games at once, all of them drawn into one image
+
+    /*
+        Games are played by worker threads at the game clock rate. After every tick that changed a board the worker copies it
+        into a Frame and swaps it into the board's middle slot, the FX thread swaps the newest frame out of it when it draws:
+        three frames per board passed around with getAndSet, so neither side waits or allocates and the FX thread
+        skips frames it was too slow to see. Each frame the FX thread compares the new frames with what it drew
+        and repaints only rows that differ, of all boards in one pass over one PixelBuffer. Tiles come from sprites
+        as in PixelRenderer, boards too small for anything else get one pixel per cell.
+     */
+    static final int DEFAULT_BOARDS = 100;
+    static final int DEFAULT_WIDTH = 1600;
+    static final int DEFAULT_HEIGHT = 900;
+    static final int GAP = 2;       // pixels between boards
+    static final int MIN_GRID_TILE = 6;
+    static final int RESTART_TICKS = 60;        // a finished game stays on screen this long before the next one starts
+    static final int EMPTY = PixelRenderer.EMPTY;       // sprites
+    static final int STACK = PixelRenderer.STACK;
+    static final int PIECE = PixelRenderer.PIECE;
+
+    static class Frame {        // what a board looks like after one tick
+        final long[] rows;
+        int orientation = -1;       // falling piece, -1 when the game is over
+        int row;
+        int column;
+        boolean fresh;      // published by the worker and not taken by the FX thread yet
+
+        Frame(int length){
+            this.rows = new long[length];
+        }
+    }
+
+    static class Board {
+        final Engine engine;
+        final MovePolicy policy;
+        final AtomicReference<Frame> middle;        // newest complete frame, or the one the FX thread gave back
+        Frame back;         // written by the worker
+        Frame front;        // read by the FX thread
+        int publishedVersion = -1;
+        int placedPieces = -1;
+        int overTicks;
+        volatile int games;         // finished, written by the worker only
+        final int x;        // top left pixel of the board in the wall
+        final int y;
+        final long[] drawn;         // rows as they are on screen
+        int drawnOrientation = -1;
+        int drawnRow;
+        int drawnColumn;
+        boolean painted;
+
+        Board(Engine engine, MovePolicy policy, int x, int y){
+            this.engine = engine;
+            this.policy = policy;
+            int length = engine.getBoardRows() * engine.words;
+            this.back = new Frame(length);
+            this.front = new Frame(length);
+            this.middle = new AtomicReference<>(new Frame(length));
+            this.drawn = new long[length];
+            this.x = x;
+            this.y = y;
+        }
+
+        void step(){        // one tick of the game with the bot moving each new piece and pulling it down
+            Engine e = engine;
+            if(e.isGameOver()){
+                if(++overTicks >= RESTART_TICKS){
+                    overTicks = 0;
+                    games++;
+                    e.restartGame();
+                    placedPieces = -1;
+                }
+                return;
+            }
+            if(e.getPiecesPlaced() != placedPieces){
+                placedPieces = e.getPiecesPlaced();
+                policy.placePiece(e);
+            }else{
+                e.applyInput(Engine.Input.SOFT_DROP);
+            }
+            e.tick();
+        }
+
+        boolean publish(){      // false when nothing changed since the previous frame
+            Engine e = engine;
+            if(e.getVersion() == publishedVersion){
+                return false;
+            }
+            publishedVersion = e.getVersion();
+            Frame frame = back;
+            System.arraycopy(e.gameBoard, 0, frame.rows, 0, frame.rows.length);
+            frame.orientation = e.isGameOver() ? -1 : e.tetro.orientation;
+            frame.row = e.tetro.getRowPos();
+            frame.column = e.tetro.getColumnPos();
+            frame.fresh = true;
+            back = middle.getAndSet(frame);
+            return true;
+        }
+
+        Frame take(){       // newest frame not drawn yet, null when there is none
+            if(!middle.get().fresh){
+                return null;        // only the worker can make it fresh again, and it never swaps in anything else
+            }
+            front.fresh = false;
+            front = middle.getAndSet(front);
+            return front;
+        }
+    }
+
+    class Worker implements Runnable {      // plays its share of the boards at speed ticks per game clock tick
+        final int first;
+        final int last;
+
+        Worker(int first, int last){
+            this.first = first;
+            this.last = last;
+        }
+
+        @Override
+        public void run() {
+            long next = System.nanoTime();
+            while(running){
+                for(int i = first; i < last; i++){
+                    Board board = boards[i];
+                    for(int s = 0; s < speed; s++){
+                        board.step();
+                    }
+                    board.publish();
+                }
+                next += GameLoop.TICK_NANOS;
+                long now = System.nanoTime();
+                if(now - next > GameLoop.MAX_CATCH_UP_TICKS * GameLoop.TICK_NANOS){
+                    next = now;         // too far behind, the clock skips ahead
+                }
+                if(next > now){
+                    LockSupport.parkNanos(next - now);
+                }
+            }
+        }
+    }
+
+    Board[] boards;
+    int rows;
+    int columns;
+    int speed;
+    volatile boolean running = true;
+    int tile;
+    int width;
+    int height;
+    IntBuffer buffer;
+    PixelBuffer<IntBuffer> pixelBuffer;
+    final int[][] sprites = new int[3][];
+    int[] kinds;        // sprite of every cell of the row being painted
+    int[] line;         // one pixel row of a board row
+    int dirtyTop;
+    int dirtyBottom;
+    long framesDrawn;
+    long boardsDrawn;
+    final Callback<PixelBuffer<IntBuffer>, Rectangle2D> update = pixels -> paintAll();
+
+    void layout(int count, int maxWidth, int maxHeight){        // boards in the grid shape that gives them the biggest tiles
+        int bestColumns = 1;
+        int bestTile = 0;
+        for(int gridColumns = 1; gridColumns <= count; gridColumns++){
+            int gridRows = (count + gridColumns - 1) / gridColumns;
+            int t = Math.min((maxWidth / gridColumns - GAP) / columns, (maxHeight / gridRows - GAP) / rows);
+            if(t > bestTile){
+                bestTile = t;
+                bestColumns = gridColumns;
+            }
+        }
+        if(bestTile == 0){      // even one pixel per cell does not fit, the window grows downwards
+            bestTile = 1;
+            bestColumns = Math.max(1, Math.min(count, (maxWidth - GAP) / (columns + GAP)));
+        }
+        tile = bestTile;
+        int gridRows = (count + bestColumns - 1) / bestColumns;
+        width = bestColumns * (columns * tile + GAP) + GAP;
+        height = gridRows * (rows * tile + GAP) + GAP;
+    }
+
+    void createBoards(int count, String policy, long seed){
+        int perRow = (width - GAP) / (columns * tile + GAP);
+        for(int i = 0; i < count; i++){
+            int x = GAP + (i % perRow) * (columns * tile + GAP);
+            int y = GAP + (i / perRow) * (rows * tile + GAP);
+            boards[i] = new Board(new Engine(rows, columns, seed + i, false, 1), MovePolicy.create(policy, seed + i), x, y);
+        }
+    }
+
+    void createImage(){
+        buffer = ByteBuffer.allocateDirect(width * height * 4).order(ByteOrder.nativeOrder()).asIntBuffer();
+        int gap = PixelRenderer.argb(Color.rgb(64, 64, 64));
+        for(int i = 0; i < width * height; i++){
+            buffer.put(i, gap);
+        }
+        boolean grid = tile >= MIN_GRID_TILE;
+        sprites[EMPTY] = PixelRenderer.sprite(tile, Color.rgb(224, 224, 224), grid);
+        sprites[STACK] = PixelRenderer.sprite(tile, Color.rgb(0, 50, 163), grid);
+        sprites[PIECE] = PixelRenderer.sprite(tile, Color.rgb(0, 163, 14), grid);
+        kinds = new int[columns];
+        line = new int[columns * tile];
+        pixelBuffer = new PixelBuffer<>(width, height, buffer, PixelFormat.getIntArgbPreInstance());
+    }
+
+    Rectangle2D paintAll(){         // one pass over every board, returning the band of pixel rows that changed
+        dirtyTop = height;
+        dirtyBottom = 0;
+        for(Board board : boards){
+            Frame frame = board.take();
+            if(frame != null){
+                paintBoard(board, frame);
+            }
+        }
+        return dirtyTop < dirtyBottom ? new Rectangle2D(0, dirtyTop, width, dirtyBottom - dirtyTop) : Rectangle2D.EMPTY;
+    }
+
+    void paintBoard(Board board, Frame frame){      // rows whose cells differ from the drawn ones, including rows the piece left or entered
+        int words = board.engine.words;
+        boolean changed = false;
+        boolean pieceMoved = board.drawnOrientation != frame.orientation || board.drawnRow != frame.row || board.drawnColumn != frame.column;
+        for(int i = 0; i < rows; i++){
+            boolean dirty = !board.painted
+                    || pieceMoved && (pieceMask(board.drawnOrientation, board.drawnRow, i) != 0 || pieceMask(frame.orientation, frame.row, i) != 0);
+            for(int w = 0; w < words && !dirty; w++){
+                dirty = board.drawn[i * words + w] != frame.rows[i * words + w];
+            }
+            if(dirty){
+                paintRow(board, frame, i);
+                changed = true;
+            }
+        }
+        System.arraycopy(frame.rows, 0, board.drawn, 0, board.drawn.length);
+        board.drawnOrientation = frame.orientation;
+        board.drawnRow = frame.row;
+        board.drawnColumn = frame.column;
+        board.painted = true;
+        if(changed){
+            boardsDrawn++;
+        }
+    }
+
+    static int pieceMask(int orientation, int pieceRow, int row){       // cells of the piece in given board row, box columns in the low bits
+        int i = row - pieceRow;
+        return orientation >= 0 && i >= 0 && i < 4 ? RotationTable.rowMask(orientation, i) : 0;
+    }
+
+    void paintRow(Board board, Frame frame, int row){
+        int words = board.engine.words;
+        int piece = pieceMask(frame.orientation, frame.row, row);
+        for(int j = 0; j < columns; j++){
+            int box = j - frame.column;
+            if(piece != 0 && box >= 0 && box < 4 && (piece >>> box & 1) != 0){
+                kinds[j] = PIECE;
+            }else{
+                kinds[j] = (frame.rows[row * words + (j >>> 6)] & 1L << j) != 0 ? STACK : EMPTY;
+            }
+        }
+        int y = board.y + row * tile;
+        for(int py = 0; py < tile; py++){
+            for(int j = 0; j < columns; j++){
+                System.arraycopy(sprites[kinds[j]], py * tile, line, j * tile, tile);
+            }
+            buffer.put((y + py) * width + board.x, line, 0, line.length);
+        }
+        dirtyTop = Math.min(dirtyTop, y);
+        dirtyBottom = Math.max(dirtyBottom, y + tile);
+    }
+
+    void startWorkers(int threads){
+        threads = Math.max(1, Math.min(threads, boards.length));
+        for(int t = 0; t < threads; t++){
+            Thread thread = new Thread(new Worker(boards.length * t / threads, boards.length * (t + 1) / threads), "wall-worker-" + t);
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    long gamesPlayed(){
+        long games = 0;
+        for(Board board : boards){
+            games += board.games;
+        }
+        return games;
+    }
+
+    @Override
+    public void start(Stage stage) {        // options: --boards=N --rows=N --columns=N --policy=NAME --threads=N --speed=N --width=N --height=N
+        Map<String, String> parameters = getParameters().getNamed();
+        int count = Integer.parseInt(parameters.getOrDefault("boards", String.valueOf(DEFAULT_BOARDS)));
+        rows = Integer.parseInt(parameters.getOrDefault("rows", String.valueOf(Engine.DEFAULT_ROWS)));
+        columns = Integer.parseInt(parameters.getOrDefault("columns", String.valueOf(Engine.DEFAULT_COLUMNS)));
+        speed = Integer.parseInt(parameters.getOrDefault("speed", "1"));
+        boards = new Board[count];
+        layout(count, Integer.parseInt(parameters.getOrDefault("width", String.valueOf(DEFAULT_WIDTH))),
+                Integer.parseInt(parameters.getOrDefault("height", String.valueOf(DEFAULT_HEIGHT))));
+        createBoards(count, parameters.getOrDefault("policy", "agent"), System.nanoTime());
+        createImage();
+
+        Group root = new Group(new ImageView(new WritableImage(pixelBuffer)));
+        stage.setScene(new Scene(root, width, height));
+        stage.setTitle("Tetris wall");
+        stage.setResizable(false);
+        startWorkers(Integer.parseInt(parameters.getOrDefault("threads", String.valueOf(Math.max(1, Runtime.getRuntime().availableProcessors() - 1)))));
+        new AnimationTimer(){
+            long titleTime;
+
+            @Override
+            public void handle(long now) {
+                pixelBuffer.updateBuffer(update);
+                framesDrawn++;
+                if(now - titleTime >= TimeUnit.SECONDS.toNanos(1)){
+                    titleTime = now;
+                    stage.setTitle(String.format("Tetris wall: %d boards, %d games finished, %.1f boards drawn per frame",
+                            boards.length, gamesPlayed(), (double) boardsDrawn / Math.max(1, framesDrawn)));
+                    boardsDrawn = 0;
+                    framesDrawn = 0;
+                }
+            }
+        }.start();
+        stage.show();
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+    }
+
+    public static void main(String[] args) {
+        launch(args);
+    }
+}
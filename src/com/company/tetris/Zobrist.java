@@ -0,0 +1,80 @@
+/*
+        Project title: Tetris
+        Author: Jakub Sobczyński
+        GitHub: https://github.com/J-Sob
+ */
+
+package com.company.tetris;
+
+final class Zobrist {       // random key for every cell of the board, hash of a board is xor of keys of its filled cells
+
+    static final int MAX_TABLE_CELLS = 1 << 18;         // larger boards compute keys instead of keeping a table of them
+
+    final int columns;
+    final int words;
+    final long[] keys;      // indexed by row * columns + column, null for large boards
+
+    Zobrist(int rows, int columns){
+        this.columns = columns;
+        this.words = Bitboard.words(columns);
+        if((long) rows * columns <= MAX_TABLE_CELLS){
+            this.keys = new long[rows * columns];
+            for(int i = 0; i < rows; i++){
+                for(int j = 0; j < columns; j++){
+                    keys[i * columns + j] = cellKey(i, j);
+                }
+            }
+        }else{
+            this.keys = null;
+        }
+    }
+
+    long key(int row, int column){
+        return keys != null ? keys[row * columns + column] : cellKey(row, column);
+    }
+
+    long rows(long[] board, int first, int last){        // hash of a range of rows, empty words cost nothing
+        long hash = 0;
+        for(int i = first; i <= last; i++){
+            for(int w = 0; w < words; w++){
+                long cells = board[i * words + w];
+                while(cells != 0){
+                    hash ^= key(i, w * 64 + Long.numberOfTrailingZeros(cells));
+                    cells &= cells - 1;
+                }
+            }
+        }
+        return hash;
+    }
+
+    long hash(long[] board){
+        return rows(board, 0, board.length / words - 1);
+    }
+
+    long place(long hash, int orientation, int row, int column){        // hash after a piece is added to the board
+        for(int i = RotationTable.MIN_ROW[orientation]; i <= RotationTable.MAX_ROW[orientation]; i++){
+            int cells = RotationTable.rowMask(orientation, i);
+            int base = (row + i) * columns + column;
+            while(cells != 0){
+                int j = Integer.numberOfTrailingZeros(cells);
+                hash ^= keys != null ? keys[base + j] : cellKey(row + i, column + j);
+                cells &= cells - 1;
+            }
+        }
+        return hash;
+    }
+
+    static long cellKey(int row, int column){       // depends only on the cell, so hashes stay the same between runs and board sizes
+        return mix(((long) row << 32 | column) + 0x5A0B0A5AL);
+    }
+
+    static long sequenceKey(Engine.Shape shape, int index){         // key of a shape at given position of the upcoming pieces
+        return mix(0x7E7A15L + shape.ordinal() * 64L + index);
+    }
+
+    static long mix(long z){        // SplitMix64 finalizer
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}